@@ -0,0 +1,2461 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import BFS.io.Archive;
+import BFS.io.Delta;
+import BFS.io.Feed;
+import BFS.io.Heat;
+import BFS.io.Manifest;
+import BFS.io.Roster;
+import BFS.io.Tape;
+import BFS.io.Tarball;
+import BFS.io.Watch;
+import BFS.lang.Buffers;
+import BFS.lang.Gradient;
+import BFS.lang.Shaper;
+import BFS.lang.Spool;
+import BFS.lang.Tally;
+import BFS.lang.Trace;
+import BFS.lang.Wheel;
+import BFS.net.Chunked;
+import BFS.net.Conduit;
+import BFS.net.Fanout;
+import BFS.net.HttpMeta;
+import BFS.net.Inlet;
+import BFS.net.Relay;
+import BFS.net.Target;
+
+
+public final class Engine implements ThreadFactory, AutoCloseable {
+
+	private static final int PATH_MEMO = 4096;
+	private static final int SUMS_MEMO = 64;
+
+	/*
+	 * Request kinds, as a request is routed, delivered and recorded on tape.
+	 * The low three bits combine as in the plain server: a listing, of a file rather than a folder, named .gz;
+	 * every other kind has a bit of its own, tar and zip keeping the listing bit since they walk a folder.
+	 */
+	static final int KIND_NONE = 0;
+	static final int KIND_LIST = 1;
+	static final int KIND_FILE = 2;
+	static final int KIND_GZIP = 4;
+	static final int KIND_TAR = 8 | KIND_LIST;
+	static final int KIND_ZIP = 16 | KIND_LIST;
+	static final int KIND_BATCH = 32;
+	static final int KIND_WATCH = 64;
+	static final int KIND_POLL = 128;
+	static final int KIND_SUMS = 256;
+	static final int KIND_DELTA = 512;
+	static final int KIND_MEMBER = 1024;
+	static final int KIND_MEMBER_GZIP = 2048;
+	static final int KIND_MEMBER_INFLATE = 4096;
+	static final int KIND_ARCHIVE = KIND_MEMBER | KIND_MEMBER_GZIP | KIND_MEMBER_INFLATE;
+
+	private final Properties base;
+
+	private final int size;
+	private final int port;
+	private final int blog;
+	private final int idle;
+	private final int reqs;
+	private final int conn;
+	private final int stat;
+	private final long rate;
+	private final long peer;
+	private final long pipe;
+	private final int cell;
+	private final int acpt;
+	private final int grps;
+	private final int sndbuf;
+	private final int rcvbuf;
+	private final boolean nodelay;
+	private final int send;
+	private final String auth;
+	private final long lane;
+	private final long slab;
+	private final int fans;
+	private final long warm;
+	private final long hdrs;
+	private final long drip;
+	private final long stall;
+	private final long life;
+
+	private final ThreadPoolExecutor[] pools;
+	private final ThreadPoolExecutor bulk;
+	private final ForkJoinPool peek;
+	private final ExecutorService scouts;
+	private final AtomicInteger turn;
+	private final ScheduledExecutorService tick;
+	private final Semaphore slots;
+	private final Gradient gate;
+	private final Shaper shape;
+	private final Set<Spool> spools;
+	private final Tally tally;
+	private final Watch watch;
+	private final Manifest index;
+	private final Archive store;
+	private final Heat heat;
+	private final Wheel wheel;
+	private final Feed feed;
+	private final Fanout fanout;
+	private final ThreadPoolExecutor push;
+	private final long poll;
+	private final int sync;
+	private final Delta delta;
+	private final Tape tape;
+	private final Target paths;
+	private final Trace trace;
+	private final Transport wire;
+	private final Path local;
+	private final Crew crew;
+	private final List<ScheduledFuture<?>> jobs;
+	private final Set<Closeable> doors;
+	private final Set<Swim> live;
+	private final CountDownLatch ready;
+	private volatile SocketAddress address;
+	private volatile boolean stopping;
+	private Thread hook;
+
+
+	private Engine(
+		Properties config,
+		String fallback,
+		Crew shared
+	) throws IOException {
+		base = config == null ? config(".arachnid") : config;
+		wire = Transport.of(base.getProperty("wire", fallback.equals("stream") && Boolean.parseBoolean(base.getProperty("chan")) ? "channel" : fallback).trim());
+
+		port = Integer.parseInt(base.getProperty("port", "80"));
+		size = Integer.parseInt(base.getProperty("size", "32"));
+		blog = Integer.parseInt(base.getProperty("blog", "128"));
+		idle = Integer.parseInt(base.getProperty("idle", "15000"));
+		reqs = Integer.parseInt(base.getProperty("reqs", "100"));
+		conn = Integer.parseInt(base.getProperty("conn", "1024"));
+		stat = Integer.parseInt(base.getProperty("stat", "0"));
+		rate = Long.parseLong(base.getProperty("rate", "0"));
+		peer = Long.parseLong(base.getProperty("peer", "0"));
+		pipe = Long.parseLong(base.getProperty("pipe", "0"));
+		cell = Integer.parseInt(base.getProperty("cell", "65536"));
+		acpt = Integer.parseInt(base.getProperty("acpt", "1"));
+		grps = Integer.parseInt(base.getProperty("grps", "1"));
+		sndbuf = Integer.parseInt(base.getProperty("sndbuf", "0"));
+		rcvbuf = Integer.parseInt(base.getProperty("rcvbuf", "0"));
+		nodelay = Boolean.parseBoolean(base.getProperty("nodelay", "true"));
+		send = Spool.mode(base.getProperty("send", "sendfile"));
+		trace = new Trace(Integer.parseInt(base.getProperty("span", "0")), Boolean.parseBoolean(base.getProperty("json", "false")));
+		auth = absent(base.getProperty("auth")) ? null : "Bearer " + base.getProperty("auth").trim();
+		lane = Long.parseLong(base.getProperty("lane", "1048576"));
+		slab = Long.parseLong(base.getProperty("slab", "8388608"));
+		fans = Integer.parseInt(base.getProperty("fans", "0"));
+		warm = Long.parseLong(base.getProperty("warm", "67108864"));
+		hdrs = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(base.getProperty("hdrs", "10000")));
+		drip = Long.parseLong(base.getProperty("drip", "1024"));
+		stall = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(base.getProperty("stall", "30000")));
+		life = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(base.getProperty("life", "0")));
+		poll = Long.parseLong(base.getProperty("poll", "30000"));
+		local = absent(base.getProperty("sock")) ? null : Paths.get(base.getProperty("sock").trim()).toAbsolutePath();
+		sync = Math.max(Delta.MIN, Math.min(Delta.MAX, Integer.parseInt(base.getProperty("sync", "0"))));
+
+		crew = shared != null ? shared : new Crew(this, base, 0);
+		pools = crew.pools;
+		bulk = crew.bulk;
+		push = crew.push;
+		tick = crew.tick;
+		turn = new AtomicInteger();
+		jobs = new ArrayList<>();
+		doors = ConcurrentHashMap.newKeySet();
+		live = ConcurrentHashMap.newKeySet();
+		ready = new CountDownLatch(1);
+
+		peek = fans > 0 ? new ForkJoinPool(fans) : null;
+		wheel = hdrs > 0 || drip > 0 || stall > 0 || life > 0 || local != null ? new Wheel(100, 512) : null;
+		slots = new Semaphore(conn);
+		gate = new Gradient(1, size + blog, size + blog);
+		tally = new Tally();
+		shape = new Shaper(rate, peer, pipe, cell, tally);
+		spools = ConcurrentHashMap.newKeySet();
+
+		tally.gauge("conn.open", () -> conn - slots.availablePermits());
+		tally.gauge("conn.limit", () -> conn);
+		tally.gauge("conn.idle.limit", () -> idle);
+		tally.gauge("conn.reqs.limit", () -> reqs);
+		tally.gauge("admit.limit", gate::limit);
+		tally.gauge("admit.inflight", gate::inflight);
+		tally.gauge("admit.queued", () -> Stream.of(pools).mapToInt(item -> item.getQueue().size()).sum());
+		tally.rate("accept.rate", "conn.accepted");
+		tally.gauge("pool.heap.hits", Buffers.HEAP::hits);
+		tally.gauge("pool.heap.misses", Buffers.HEAP::misses);
+		tally.gauge("pool.direct.hits", Buffers.DIRECT::hits);
+		tally.gauge("pool.direct.misses", Buffers.DIRECT::misses);
+		tally.gauge("xfer.active", spools::size);
+		tally.gauge("xfer.pending", () -> spools.stream().mapToLong(Spool::remaining).sum());
+		tally.gauge("admit.latency.us", () -> gate.latency() / 1000);
+		tally.gauge("lane.bulk.active", bulk::getActiveCount);
+		tally.gauge("lane.bulk.queued", () -> bulk.getQueue().size());
+		tally.gauge("lane.bulk.limit", bulk::getMaximumPoolSize);
+
+		if (stat > 0) {
+			jobs.add(tick.scheduleAtFixedRate(() -> dump(tally, "STAT"), stat, stat, TimeUnit.SECONDS));
+		}
+
+		if (wheel != null) {
+			tally.gauge("deadline.armed", wheel::armed);
+			jobs.add(crew.clock.scheduleAtFixedRate(wheel::advance, 100, 100, TimeUnit.MILLISECONDS));
+		}
+
+		store = base.get("root") instanceof Path && Archive.accepts((Path)base.get("root")) ? Archive.open((Path)base.get("root")) : null;
+		paths = base.get("root") instanceof Path && store == null ? new Target((Path)base.get("root"), PATH_MEMO) : null;
+		watch = paths == null || absent(base.getProperty("mani")) && Integer.parseInt(base.getProperty("feed", "0")) <= 0 ? null
+			: Watch.open((Path)base.get("root"));
+		index = absent(base.getProperty("mani")) || paths == null ? null
+			: Manifest.open((Path)base.get("root"), Paths.get(base.getProperty("mani").trim()), watch, this);
+
+		if (paths != null) {
+			tally.gauge("path.cached", paths::size);
+		}
+
+		if (store != null) {
+			tally.gauge("store.files", store::size);
+			jobs.add(tick.scheduleWithFixedDelay(this::restock, 1, 1, TimeUnit.SECONDS));
+		}
+
+		if (index != null) {
+			jobs.add(tick.scheduleWithFixedDelay(this::persist, 60, 60, TimeUnit.SECONDS));
+		}
+
+		feed = Integer.parseInt(base.getProperty("feed", "0")) <= 0 || paths == null ? null
+			: Feed.open((Path)base.get("root"), Integer.parseInt(base.getProperty("feed")), watch, push);
+
+		if (feed != null) {
+			tally.gauge("feed.subscribers", feed::subscribers);
+			tally.gauge("feed.queued", () -> push.getQueue().size());
+			jobs.add(tick.scheduleWithFixedDelay(feed::beat, 1, 1, TimeUnit.SECONDS));
+		}
+
+		if (watch != null) {
+			if (index == null) {
+				watch.cover(((Path)base.get("root")).toAbsolutePath().normalize());
+			}
+
+			tally.gauge("watch.dirs", watch::watched);
+			watch.start(this);
+		}
+
+		fanout = feed == null ? null : Fanout.open(this);
+
+		delta = Integer.parseInt(base.getProperty("sync", "0")) <= 0 || paths == null ? null : Delta.open(SUMS_MEMO);
+
+		if (delta != null) {
+			tally.gauge("delta.sums.cached", delta::size);
+			tally.gauge("delta.sums.hits", delta::hits);
+			tally.gauge("delta.sums.built", delta::built);
+		}
+
+		heat = absent(base.getProperty("heat")) || paths == null ? null
+			: Heat.open(Paths.get(base.getProperty("heat").trim()), Integer.parseInt(base.getProperty("tops", "256")));
+
+		if (heat != null) {
+			tally.gauge("heat.tracked", heat::size);
+			jobs.add(tick.scheduleWithFixedDelay(this::cool, 60, 60, TimeUnit.SECONDS));
+			jobs.add(tick.scheduleAtFixedRate(heat::decay, 1, 1, TimeUnit.HOURS));
+			Runtime.getRuntime().addShutdownHook(hook = newThread(this::cool));
+
+			if (warm > 0 && !heat.prior().isEmpty()) {
+				newThread(() -> warm(heat.prior())).start();
+			}
+		}
+
+		final Relay relay = base.get("goto") instanceof Relay ? (Relay)base.get("goto") : null;
+		final int beat = Integer.parseInt(base.getProperty("beat", "5"));
+
+		scouts = relay == null || relay.nodes().size() < 2 || beat <= 0 ? null
+			: Executors.newFixedThreadPool(relay.nodes().size(), this);
+
+		if (relay != null) {
+			for (Relay.Node node : relay.nodes()) {
+				tally.gauge("goto." + node.label() + ".routed", node::routed);
+				tally.gauge("goto." + node.label() + ".alive", () -> node.alive() ? 1 : 0);
+			}
+
+			tally.gauge("goto.blind", relay::blind);
+
+			if (scouts != null) {
+				jobs.add(tick.scheduleWithFixedDelay(() -> relay.probe(scouts), 0, beat, TimeUnit.SECONDS));
+			}
+		}
+
+		tape = absent(base.getProperty("tape")) ? null
+			: Tape.open(Paths.get(base.getProperty("tape").trim()), base.get("goto") instanceof Relay);
+
+		if (tape != null) {
+			tally.gauge("tape.records", tape::records);
+			jobs.add(tick.scheduleWithFixedDelay(tape::flush, 1, 1, TimeUnit.SECONDS));
+		}
+
+		if (shape.active()) {
+			jobs.add(tick.scheduleAtFixedRate(shape::prune, 30, 30, TimeUnit.SECONDS));
+		}
+	}
+
+
+	private static synchronized void dump(Object listener, SocketAddress local, Properties config, String... params) {
+		System.err.println(String.format("%s#%s @ %s",
+			listener.getClass().getCanonicalName(),
+			System.identityHashCode(listener),
+			local));
+		System.err.println("========================================================");
+
+		for (String item : params) {
+			System.err.println(item + " " + config.getOrDefault(item, "n/a"));
+		}
+
+		System.err.println();
+	}
+
+	private static synchronized void dump(Tally tally, String label) {
+		System.err.println(String.format("%s#%s",
+			tally.getClass().getCanonicalName(),
+			System.identityHashCode(tally)));
+		System.err.println("========================================================");
+
+		for (Entry<String, Long> item : tally.snap().entrySet()) {
+			System.err.println(label + " " + item.getKey() + " " + item.getValue());
+		}
+
+		System.err.println();
+	}
+
+	/**
+	 * Resolves the home directory or upstream; only the interactive launch may ask for a missing root, anyone else gets the working directory.
+	 */
+	private static synchronized Object pick(String $root, String $goto, String $sway, boolean ask) {
+		if (absent($goto)) {
+			final File curr = new File(".");
+			final Path path;
+
+			if (absent($root)) {
+				path = (ask ? Picker.pick(curr) : curr).toPath();
+			} else {
+				path = Paths.get($root.trim());
+			}
+
+			return path.toAbsolutePath();
+		} else {
+			return Relay.parse($goto, absent($sway) ? "hash" : $sway.trim());
+		}
+	}
+
+	/**
+	 * Reads a root or goto that an embedding caller may have put as a File, Path or URI instead of a string.
+	 */
+	private static String text(Properties ini, String key) {
+		final Object value = ini.get(key);
+
+		if (value == null) {
+			return ini.getProperty(key);
+		} else if (value instanceof String || value instanceof File || value instanceof Path || value instanceof URI) {
+			return value.toString();
+		}
+
+		throw new IllegalArgumentException("Unusable " + key + ": " + value.getClass().getName());
+	}
+
+	/**
+	 * Copies a caller's config, string keys and defaults as well as the objects some callers put for root or goto.
+	 */
+	static Properties copy(Properties config) {
+		final Properties copy = new Properties();
+
+		for (String key : config.stringPropertyNames()) {
+			copy.setProperty(key, config.getProperty(key));
+		}
+
+		for (Entry<Object, Object> item : config.entrySet()) {
+			copy.putIfAbsent(item.getKey(), item.getValue());
+		}
+
+		return copy;
+	}
+
+	private static boolean absent(String param) {
+		return param == null || param.trim().isEmpty();
+	}
+
+	private static Properties config(String ini) throws IOException {
+		ClassLoader app = Engine.class.getClassLoader();
+		Properties tmp = new Properties();
+
+		try {
+			tmp.load(Files.newInputStream(Paths.get(ini)));
+		} catch (NoSuchFileException|FileNotFoundException e) {
+			tmp.load(app.getResource(ini).openStream());
+		}
+
+		return config(tmp, true);
+	}
+
+	private static Properties config(Properties ini, boolean ask) {
+		if (ini.get("goto") instanceof Relay) {
+			return ini;
+		}
+
+		final Object union = pick(
+			text(ini, "root"),
+			text(ini, "goto"),
+			ini.getProperty("sway"),
+			ask);
+
+		ini.put(union != null ?
+			union instanceof Path ? "root" :
+			union instanceof Relay ? "goto" :
+			null : null, union);
+
+		return ini;
+	}
+
+	public static void listen(Properties config, String wire) throws IOException {
+		try (
+			Engine svc = new Engine(config == null ? null : config(copy(config), false), wire, null);
+		) {
+			svc.serve();
+		}
+	}
+
+	static Engine open(Properties config, String wire, Crew crew) throws IOException {
+		return new Engine(config == null ? null : config(config, false), wire, crew);
+	}
+
+	void serve() throws IOException {
+		try {
+			if (local != null) {
+				newThread(() -> {
+					try {
+						new Transport.Local().serve(this);
+					} catch (IOException e) {
+						System.err.println("No listener on " + local + ": " + e.getMessage());
+					}
+				}).start();
+			}
+
+			wire.serve(this);
+		} finally {
+			ready.countDown();
+		}
+	}
+
+	SocketAddress await() throws InterruptedException {
+		ready.await();
+
+		return address;
+	}
+
+	boolean drain(long millis) {
+		final long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+		boolean clean = true;
+
+		stopping = true;
+
+		for (Closeable door : doors) {
+			try {
+				door.close();
+			} catch (IOException e) {
+			}
+		}
+
+		try {
+			for (boolean force = false; !live.isEmpty(); Thread.sleep(1)) {
+				if (!force && System.nanoTime() > until) {
+					tally.add("stop.forced", live.size());
+					clean = false;
+					force = true;
+				} else if (force && System.nanoTime() > until + TimeUnit.SECONDS.toNanos(1)) {
+					break;
+				}
+
+				for (Swim swim : live) {
+					swim.halt(force);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return clean;
+	}
+
+
+	public int port() {
+		return port;
+	}
+
+	public Path local() {
+		return local;
+	}
+
+	public int backlog() {
+		return blog;
+	}
+
+	public int acceptors() {
+		return Math.max(1, acpt);
+	}
+
+	public int idle() {
+		return idle;
+	}
+
+	public int rcvbuf() {
+		return rcvbuf;
+	}
+
+	public Tally tally() {
+		return tally;
+	}
+
+	public Wheel wheel() {
+		return wheel;
+	}
+
+	public void bound(Object listener, SocketAddress local) {
+		dump(listener, local, base, "root", "goto", "sway", "wire");
+
+		if (local instanceof InetSocketAddress && address == null) {
+			address = local;
+			ready.countDown();
+		}
+	}
+
+	public void door(Closeable listener) throws IOException {
+		doors.add(listener);
+
+		if (stopping) {
+			listener.close();
+		}
+	}
+
+	public Socket tune(Socket client) {
+		try {
+			client.setTcpNoDelay(nodelay);
+
+			if (sndbuf > 0) {
+				client.setSendBufferSize(sndbuf);
+			}
+
+			if (rcvbuf > 0) {
+				client.setReceiveBufferSize(rcvbuf);
+			}
+		} catch (SocketException e) {
+		}
+
+		return client;
+	}
+
+	public SocketChannel tune(SocketChannel client) {
+		try {
+			if (sndbuf > 0) {
+				client.setOption(StandardSocketOptions.SO_SNDBUF, sndbuf);
+			}
+
+			if (rcvbuf > 0) {
+				client.setOption(StandardSocketOptions.SO_RCVBUF, rcvbuf);
+			}
+		} catch (IOException e) {
+		}
+
+		return client;
+	}
+
+	public boolean admit(boolean wait) {
+		if (!slots.tryAcquire()) {
+			tally.inc("conn.capped");
+
+			if (!wait) {
+				return false;
+			}
+
+			try {
+				slots.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return !Thread.currentThread().isInterrupted();
+	}
+
+	public void handle(Conduit client, Executor runner) {
+		final Swim swim = new Swim(this, client);
+
+		tally.inc("conn.accepted");
+		dispatch(swim, swim, runner);
+	}
+
+	Swim open(Conduit client) {
+		tally.inc("conn.accepted");
+
+		return new Swim(this, client);
+	}
+
+	void dispatch(Swim swim, Runnable task, Executor runner) {
+		swim.runner = runner;
+
+		if (gate.acquire()) {
+			try {
+				(runner != null ? runner : pools[Math.floorMod(turn.getAndIncrement(), pools.length)]).execute(task);
+				return;
+			} catch (RejectedExecutionException e) {
+				gate.release();
+			}
+		}
+
+		tally.inc("admit.rejected");
+		swim.shed();
+	}
+
+	boolean available() {
+		return slots.availablePermits() > 0;
+	}
+
+	void release() {
+		slots.release();
+	}
+
+	void settle() {
+		gate.release();
+	}
+
+	private boolean bulky(int flags, long length) {
+		return lane > 0 && (flags == KIND_TAR || flags == KIND_ZIP || flags == KIND_BATCH || flags == KIND_DELTA
+			|| (file(flags) || (flags & KIND_ARCHIVE) != 0) && length >= lane);
+	}
+
+	/**
+	 * Tells a file sent whole from disk, under its own name or a .gz one.
+	 */
+	static boolean file(int kind) {
+		return kind == KIND_FILE || kind == (KIND_FILE | KIND_GZIP);
+	}
+
+	/**
+	 * Tells a listing, whether of a folder, of a single file, or of a .gz one.
+	 */
+	static boolean list(int kind) {
+		return kind == KIND_LIST || kind == (KIND_LIST | KIND_FILE) || kind == (KIND_LIST | KIND_FILE | KIND_GZIP);
+	}
+
+	private boolean crowded() {
+		return !bulk.getQueue().isEmpty() && bulk.getQueue().remainingCapacity() > 0;
+	}
+
+
+	private void restock() {
+		try {
+			tally.add("store.swaps", store.refresh() ? 1 : 0);
+		} catch (IOException e) {
+			tally.inc("store.failed");
+		}
+	}
+
+	private void persist() {
+		try {
+			tally.add("mani.saved", index.save() ? 1 : 0);
+		} catch (IOException e) {
+			tally.inc("mani.failed");
+		}
+	}
+
+	private void cool() {
+		try {
+			heat.save();
+			tally.inc("heat.saved");
+		} catch (IOException e) {
+			tally.inc("heat.failed");
+		}
+	}
+
+	private void warm(List<String> list) {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+		final long t0 = System.nanoTime();
+		final long stop = t0 + TimeUnit.MINUTES.toNanos(1);
+		long bytes = 0;
+
+		try {
+			for (String raw : list) {
+				final Entry<String, Path> hit = paths.resolve(raw);
+
+				if (hit == null) {
+					continue;
+				} else if (index != null) {
+					index.find(hit.getKey());
+				}
+
+				try {
+					if (Files.isDirectory(hit.getValue())) {
+						try (DirectoryStream<Path> items = Files.newDirectoryStream(hit.getValue())) {
+							items.forEach(item -> {});
+						}
+					} else {
+						try (FileChannel in = FileChannel.open(hit.getValue(), StandardOpenOption.READ)) {
+							for (int n; System.nanoTime() < stop && (n = in.read(buffer)) > 0; buffer.clear()) {
+								bytes += n;
+
+								while (gate.inflight() > 0 && System.nanoTime() < stop) {
+									tally.inc("heat.warm.yields");
+									Thread.sleep(50);
+								}
+
+								Thread.sleep(Math.max(0, Math.min(
+									TimeUnit.NANOSECONDS.toMillis(stop - System.nanoTime()),
+									TimeUnit.SECONDS.toMillis(bytes) / warm - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0))));
+							}
+						}
+					}
+
+					tally.inc("heat.warm.paths");
+				} catch (IOException e) {
+				}
+
+				if (System.nanoTime() > stop) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+		} finally {
+			tally.add("heat.warm.bytes", bytes);
+			tally.add("heat.warm.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+		}
+	}
+
+
+	@Override
+	public Thread newThread(Runnable task) {
+		return daemon(task);
+	}
+
+	private static Thread daemon(Runnable task) {
+		Thread thread = Executors.defaultThreadFactory().newThread(task);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	@Override
+	public void close() {
+		for (ScheduledFuture<?> job : jobs) {
+			job.cancel(false);
+		}
+
+		if (crew.owner == this) {
+			crew.shutdown();
+		}
+
+		if (hook != null) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(hook);
+			} catch (IllegalStateException e) {
+			}
+		}
+
+		if (watch != null) {
+			try {
+				watch.close();
+			} catch (IOException e) {
+			}
+		}
+
+		if (fanout != null) {
+			try {
+				fanout.close();
+			} catch (IOException e) {
+			}
+		}
+
+		if (peek != null) {
+			peek.shutdown();
+		}
+
+		if (scouts != null) {
+			scouts.shutdownNow();
+		}
+
+		if (delta != null) {
+			delta.close();
+		}
+
+		if (tape != null) {
+			try {
+				tape.close();
+			} catch (IOException e) {
+			}
+		}
+
+		if (store != null) {
+			store.close();
+		}
+
+		if (index != null) {
+			try {
+				index.close();
+			} catch (IOException e) {
+			}
+		}
+
+		if (heat != null) {
+			cool();
+		}
+
+		dump(tally, "STAT");
+	}
+
+
+	/**
+	 * The executors behind an engine; embedded servers share one crew, sized by the first of them.
+	 * <p>
+	 * The deadline wheel turns on a 'clock' of its own, so slow jobs on 'tick' never hold it up.
+	 */
+	static final class Crew {
+
+		private final Engine owner;
+		private final ThreadPoolExecutor[] pools;
+		private final ThreadPoolExecutor bulk;
+		private final ThreadPoolExecutor push;
+		private final ScheduledExecutorService tick;
+		private final ScheduledExecutorService clock;
+
+
+		Crew(Engine owner, Properties config, long linger) {
+			final int size = Integer.parseInt(config.getProperty("size", "32"));
+			final int blog = Integer.parseInt(config.getProperty("blog", "128"));
+			final int lanes = Math.max(1, Integer.parseInt(config.getProperty("bulk", String.valueOf(Math.max(1, size / 4)))));
+
+			this.owner = owner;
+			this.pools = new ThreadPoolExecutor[Math.max(1, Integer.parseInt(config.getProperty("grps", "1")))];
+
+			for (int i = 0; i < pools.length; i++) {
+				pools[i] = pool(
+					Math.max(1, (size + i) / pools.length),
+					new ArrayBlockingQueue<>(Math.max(1, (blog + i) / pools.length)), linger);
+			}
+
+			this.bulk = pool(lanes, new ArrayBlockingQueue<>(Math.max(1, Integer.parseInt(config.getProperty("bulq", String.valueOf(blog))))), linger);
+			this.push = pool(Math.max(1, size / 8), new LinkedBlockingQueue<>(), linger);
+			this.tick = Executors.newSingleThreadScheduledExecutor(Engine::daemon);
+			this.clock = Executors.newSingleThreadScheduledExecutor(Engine::daemon);
+		}
+
+
+		private static ThreadPoolExecutor pool(int threads, BlockingQueue<Runnable> queue, long linger) {
+			final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, linger, TimeUnit.SECONDS, queue, Engine::daemon);
+
+			pool.allowCoreThreadTimeOut(linger > 0);
+
+			return pool;
+		}
+
+		void shutdown() {
+			tick.shutdown();
+			clock.shutdown();
+
+			for (ThreadPoolExecutor pool : pools) {
+				pool.shutdown();
+			}
+
+			bulk.shutdown();
+			push.shutdown();
+		}
+
+	}
+
+	static final class Swim implements HttpMeta, Runnable, Wheel.Task {
+
+		private static final int BATCH_LIMIT = 1 << 20;
+		private static final int DELTA_LIMIT = 1 << 26;
+		private static final int OUTBOX = 1 << 20;
+		private static final String[] PHASES = { "none", "head", "body", "write" };
+		private static final int NONE = 0;
+		private static final int HEAD = 1;
+		private static final int BODY = 2;
+		private static final int WRITE = 3;
+		private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+		private static final String BOUNDARY = "arachnid-" + Long.toHexString(System.nanoTime());
+
+		private final Engine owner;
+		private final Conduit socket;
+
+		private final Shaper.Flow flow;
+
+		private final List<String> request;
+		private final List<String> response;
+		private final Relay redirect;
+		private boolean session = false;
+		private int served = 0;
+		private long length = 0;
+		private Manifest.Node entry;
+		private Spool spool;
+		private Posted posted;
+		private Unpack archive;
+		private Follow follow;
+		private Entry<Path, Integer> held;
+		private FileChannel source;
+		private boolean bulky;
+		private long begun;
+		private long carried;
+		private volatile int phase;
+		private volatile long due;
+		private volatile long end;
+		private volatile boolean closed;
+		private volatile boolean working;
+		private volatile boolean waiting;
+		private final AtomicBoolean gone = new AtomicBoolean();
+		private final AtomicBoolean freed = new AtomicBoolean();
+		private volatile long drained;
+		private boolean detached;
+		private boolean keeping;
+		private byte[] answer;
+		private final long born = System.nanoTime();
+		private final int serial;
+		private long arrived;
+		private long metered;
+		long parked;
+		Executor runner;
+
+		private Inlet reader;
+		private BufferedWriter writer;
+		private Trace.Span trace;
+
+
+		private Swim(Engine owner, Conduit socket) {
+			this.owner = owner;
+			this.socket = socket;
+			this.flow = owner.shape.open(socket.peer());
+			this.request = new ArrayList<>();
+			this.response = new ArrayList<>();
+			this.redirect = (Relay)owner.base.get("goto");
+			this.serial = owner.tape != null ? owner.tape.wire() : 0;
+
+			owner.live.add(this);
+		}
+
+
+		private boolean copy(Spool spool, WritableByteChannel out, Shaper.Flow flow) throws IOException {
+			final long stop = bulky && owner.slab > 0 ? spool.position() + owner.slab : Long.MAX_VALUE;
+
+			while (!spool.done()) {
+				if (spool.position() >= stop && owner.crowded()) {
+					owner.tally.inc("lane.bulk.yields");
+					return false;
+				}
+
+				flow.pace(spool.step(out, Math.min(flow.slice(), bulky && owner.slab > 0 ? owner.slab : Long.MAX_VALUE)));
+			}
+
+			return true;
+		}
+
+		void shed() {
+			final String head = String.join(CRLF,
+				STATUS_LINE.print(Version.SPEC_11, Status.CODE_503),
+				RETRY_AFTER.print(1),
+				CONTENT_INFO.print(Content.LENGTH, 0),
+				CONNECTION.print(Persist.NO_PERSIST),
+				CRLF);
+
+			try (Conduit task = socket) {
+				task.sink().write(ByteBuffer.wrap(head.getBytes(UTF8)));
+				task.shutdownOutput();
+			} catch (IOException e) {
+			} finally {
+				owner.live.remove(this);
+				owner.release();
+			}
+		}
+
+		private static String stage(int flags) {
+			return flags == KIND_TAR ? "tar"
+				: flags == KIND_ZIP ? "zip"
+				: flags == KIND_BATCH ? "batch"
+				: flags == KIND_WATCH ? "watch"
+				: flags == KIND_POLL ? "poll"
+				: flags == KIND_SUMS ? "sums"
+				: flags == KIND_DELTA ? "delta"
+				: flags == KIND_MEMBER ? "member"
+				: flags == KIND_MEMBER_GZIP ? "gzip"
+				: flags == KIND_MEMBER_INFLATE ? "inflate"
+				: (flags & KIND_LIST) != 0 ? "list"
+				: "send";
+		}
+
+		private static String scope(String dir) {
+			return dir.endsWith("/") ? dir.substring(0, dir.length() - 1) : dir;
+		}
+
+		private static int branch(Manifest.Node node, String orig) {
+			return node == null ? KIND_NONE
+				: node.isDirectory() ? KIND_LIST
+				: KIND_FILE | (
+					orig.endsWith("/") ? KIND_LIST :
+					orig.endsWith(".gz") ? KIND_GZIP :
+					orig.endsWith(".jgz") ? KIND_GZIP : KIND_NONE);
+		}
+
+		private static int branch(Path path, String orig) {
+			return path == null ? KIND_NONE
+				: Files.isDirectory(path) ? KIND_LIST
+				: Files.isReadable(path) ? KIND_FILE | (
+					orig.endsWith("/") ? KIND_LIST :
+					orig.endsWith(".gz") ? KIND_GZIP :
+					orig.endsWith(".jgz") ? KIND_GZIP : KIND_NONE)
+				: KIND_NONE;
+		}
+
+		private static Predicate<Path> filter1(Path base, BasicFileAttributes[] temp) throws IOException {
+			final BasicFileAttributes info = Files.readAttributes(base, BasicFileAttributes.class);
+
+			return node -> (temp[0] = info) != null
+				&& (info.isDirectory() || info.isRegularFile());
+		}
+
+		private static BiPredicate<Path, BasicFileAttributes> filterN(Path base, BasicFileAttributes[] temp) {
+			return (node, info) -> (temp[0] = info) != null
+				&& (info.isDirectory() || info.isRegularFile());
+		}
+
+		private static synchronized void dump(Conduit channel, List<String> bucket, String label) {
+			System.err.println(channel);
+			System.err.println("========================================================");
+
+			for (String line : bucket) {
+				System.err.println(label + " " + line);
+			}
+
+			System.err.println();
+		}
+
+		private static void chunk(OutputStream out, Object file, Instant time, Object size) throws IOException {
+			byte[] data = String
+				.format("%s\t%s\t%s\r\n\r\n", file, ISO_INSTANT.format(time), size)
+				.getBytes(UTF8);
+			byte[] meta = String
+				.format("%x\r\n", data.length - 2)
+				.getBytes();
+
+			out.write(meta);
+			out.write(data);
+			out.flush();
+		}
+
+		private static String query(String url, String key) {
+			final int mark = url.indexOf('?');
+
+			if (mark >= 0) {
+				for (String pair : url.substring(mark + 1).split("&")) {
+					if (pair.equals(key)) {
+						return "";
+					} else if (pair.startsWith(key + "=")) {
+						return pair.substring(key.length() + 1);
+					}
+				}
+			}
+
+			return null;
+		}
+
+		private static String label(Path base, Path item, BasicFileAttributes info) {
+			final String name = base.relativize(item).toString().replace(File.separatorChar, '/');
+
+			return info.isDirectory() ? name + "/" : name;
+		}
+
+		private static boolean append(List<String> bucket, String line) {
+			return !line.isEmpty() && bucket.add(line);
+		}
+
+
+		private boolean clear() {
+			request.clear();
+			response.clear();
+			session = false;
+			entry = null;
+			length = 0;
+			posted = null;
+			follow = null;
+
+			return true;
+		}
+
+		private void watch(int phase, long nanos) {
+			this.due = phase != NONE && nanos > 0 ? System.nanoTime() + nanos : 0;
+			this.phase = phase;
+		}
+
+		private void drain() {
+			drained = reader.taken();
+			watch(BODY, owner.drip > 0 ? Math.max(owner.hdrs, SECOND) : 0);
+		}
+
+		private boolean process(Inlet in) throws IOException {
+			String line;
+
+			waiting = true;
+
+			try {
+				if (!in.await()) {
+					throw new InterruptedIOException();
+				}
+			} finally {
+				waiting = false;
+			}
+
+			arrived = System.nanoTime();
+			metered = flow.sent();
+			watch(HEAD, owner.hdrs);
+			end = owner.life > 0 ? System.nanoTime() + owner.life : 0;
+
+			do {
+				if ((line = in.line()) == null) {
+					throw new InterruptedIOException();
+				} else if (request.isEmpty()) {
+					trace = owner.trace.start(line);
+					trace.phase("read");
+				}
+			} while (append(request, line));
+
+			dump(socket, request, "REQ");
+
+			posted = receive(in);
+
+			return !request.isEmpty();
+		}
+
+		private String header(Header name) {
+			final Map<Field, String> $header = new HashMap<>();
+
+			for (String line : request) {
+				if (HEADER_LINE.scan(line, $header) && Header.cast($header.get(Field.NAME), null) == name) {
+					return $header.get(Field.VALUE).trim();
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * Tells whether Accept-Encoding allows the coding, by name or through '*', with a q-value above zero.
+		 */
+		private boolean accepts(String coding) {
+			final String value = header(Header.ACCEPT_ENCODING);
+			double named = -1;
+			double other = -1;
+
+			for (String item : value == null ? new String[0] : value.split(",")) {
+				final String[] parts = item.split(";");
+				final String name = parts[0].trim().toLowerCase(Locale.ROOT);
+				double q = 1;
+
+				for (int i = 1; i < parts.length; i++) {
+					final String param = parts[i].trim().toLowerCase(Locale.ROOT);
+
+					if (param.startsWith("q=")) {
+						try {
+							q = Double.parseDouble(param.substring(2).trim());
+						} catch (NumberFormatException e) {
+							q = 0;
+						}
+					}
+				}
+
+				if (name.equals(coding) || name.equals("x-" + coding)) {
+					named = q;
+				} else if (name.equals("*")) {
+					other = q;
+				}
+			}
+
+			return named >= 0 ? named > 0 : other > 0;
+		}
+
+		private long cursor(String value) {
+			try {
+				return value == null || value.trim().isEmpty() ? owner.feed.cursor() : Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+
+		private int block(String value) {
+			try {
+				return value == null || value.trim().isEmpty() ? owner.sync : Math.max(Delta.MIN, Math.min(Delta.MAX, Integer.parseInt(value.trim())));
+			} catch (NumberFormatException e) {
+				return owner.sync;
+			}
+		}
+
+		private long lapse(String wait) {
+			try {
+				return wait == null ? owner.poll : Math.min(owner.poll, TimeUnit.SECONDS.toMillis(Long.parseLong(wait)));
+			} catch (NumberFormatException e) {
+				return owner.poll;
+			}
+		}
+
+		private void answer(Feed.Page page, Version resVer) {
+			final StringBuilder text = new StringBuilder();
+
+			if (page.reset()) {
+				text.append(page.cursor()).append("\treset\t/\r\n");
+			}
+
+			for (Feed.Event item : page.events()) {
+				text.append(item.seq()).append('\t').append(item.kind()).append("\t/").append(item.path()).append("\r\n");
+			}
+
+			answer = text.toString().getBytes(UTF8);
+
+			append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+			append(response, CONTENT_INFO.print(Content.TYPE, "text/plain; charset=utf-8"));
+			append(response, CACHE_CONTROL.print("no-cache"));
+			append(response, CURSOR.print(page.cursor()));
+			append(response, CONTENT_INFO.print(Content.LENGTH, answer.length));
+		}
+
+		private void await(Runnable resume) {
+			final Follow wait = follow;
+			final AtomicBoolean once = new AtomicBoolean();
+			final Feed.Listener done = page -> {
+				if (once.compareAndSet(false, true)) {
+					wait.waited = page;
+
+					try {
+						owner.push.execute(() -> wake(resume));
+					} catch (RejectedExecutionException e) {
+						close();
+					}
+				}
+
+				return false;
+			};
+			final Runnable cancel = owner.feed.expect(wait.scope, wait.cursor, done);
+
+			owner.tick.schedule(() -> {
+				cancel.run();
+				done.accept(owner.feed.since(wait.cursor, wait.scope));
+			}, wait.lapse, TimeUnit.MILLISECONDS);
+		}
+
+		private void wake(Runnable resume) {
+			boolean open = false;
+
+			try {
+				open = turn();
+			} finally {
+				if (held != null) {
+					carry(resume);
+				} else if (open) {
+					resume.run();
+				} else if (!detached) {
+					close();
+				}
+			}
+		}
+
+		private boolean push(Feed.Page page) {
+			final StringBuilder text = new StringBuilder();
+
+			if (page.reset()) {
+				text.append("id: ").append(page.cursor()).append("\nevent: reset\ndata: /").append(follow.scope).append("\n\n");
+			}
+
+			for (Feed.Event item : page.events()) {
+				text.append("id: ").append(item.seq()).append("\nevent: ").append(item.kind()).append("\ndata: /").append(item.path()).append("\n\n");
+			}
+
+			if (text.length() == 0) {
+				text.append(": ping\n\n");
+			}
+
+			final ByteBuffer data = ByteBuffer.wrap(text.toString().getBytes(UTF8));
+
+			if (follow.line != null) {
+				if (!follow.line.offer(data)) {
+					return false;
+				}
+
+				owner.tally.add("feed.pushed", page.events().size());
+
+				return true;
+			}
+
+			watch(WRITE, owner.stall);
+
+			try {
+				while (data.hasRemaining()) {
+					socket.sink().write(data);
+				}
+
+				owner.tally.add("feed.pushed", page.events().size());
+
+				return true;
+			} catch (IOException e) {
+				close();
+
+				return false;
+			} finally {
+				watch(NONE, 0);
+			}
+		}
+
+		private long declared() {
+			final String value = header(Header.LENGTH);
+
+			try {
+				return value == null ? 0 : Long.parseLong(value);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+
+		private void proceed() throws IOException {
+			if ("100-continue".equalsIgnoreCase(header(Header.EXPECT))) {
+				socket.sink().write(ByteBuffer.wrap(CONTINUE));
+			}
+		}
+
+		private Posted receive(Inlet in) throws IOException {
+			if (request.isEmpty() || !request.get(0).startsWith("POST ")) {
+				return null;
+			}
+
+			final String[] line = request.get(0).split(" ");
+			final Posted posted = new Posted(declared());
+
+			if (posted.length < 0 || posted.length > BATCH_LIMIT || owner.delta != null && line.length > 1 && query(line[1], "delta") != null) {
+				return posted;
+			}
+
+			proceed();
+			drain();
+
+			final byte[] body = new byte[(int)posted.length];
+
+			for (int done = 0, step; done < body.length; done += step) {
+				if ((step = in.read(body, done, body.length - done)) < 0) {
+					throw new InterruptedIOException();
+				}
+			}
+
+			posted.text = new String(body, UTF8);
+
+			return posted;
+		}
+
+		private Delta.Sums signature() throws IOException {
+			final InputStream body = reader.body(posted.length);
+
+			proceed();
+			drain();
+
+			try {
+				final Delta.Sums sums = Delta.parse(new BufferedReader(new InputStreamReader(body, UTF8)), posted.length);
+
+				if (sums != null) {
+					body.transferTo(OutputStream.nullOutputStream());
+				}
+
+				return sums;
+			} finally {
+				watch(WRITE, owner.stall);
+			}
+		}
+
+		private boolean upload(Entry<String, Path> place, long bytes, boolean chunked) throws IOException {
+			final Path target = place.getValue();
+			final long t0 = System.nanoTime();
+
+			trace.phase("upload");
+
+			final boolean fresh = !Files.exists(Files.createDirectories(target.getParent()).resolve(target.getFileName()));
+			final Path temp = Files.createTempFile(target.getParent(), ".arachnid-", ".part");
+			long done = 0;
+			boolean moved = false;
+
+			try {
+				try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+					if (!chunked) {
+						if (bytes > 0) {
+							out.write(ByteBuffer.allocate(1), bytes - 1);
+						}
+
+						drain();
+						done = reader.transfer(out, 0, bytes, socket.source());
+					} else {
+						drain();
+
+						for (long step; (step = unchunk(reader.line())) > 0; done += step) {
+							reader.transfer(out, done, step, socket.source());
+
+							if (!Objects.equals(reader.line(), "")) {
+								throw new IOException("Malformed chunk");
+							}
+						}
+
+						for (String line = reader.line(); line == null || !line.isEmpty(); line = reader.line()) {
+							if (line == null) {
+								throw new InterruptedIOException();
+							}
+						}
+					}
+				}
+
+				watch(WRITE, owner.stall);
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				moved = true;
+			} finally {
+				if (!moved) {
+					Files.deleteIfExists(temp);
+				}
+			}
+
+			if (owner.index != null) {
+				owner.index.touch(place.getKey());
+			}
+
+			trace.bytes(done);
+			owner.tally.inc("upload.count");
+			owner.tally.add("upload.bytes", done);
+			owner.tally.add("upload.us", (System.nanoTime() - t0) / 1000);
+
+			return fresh;
+		}
+
+		private static long unchunk(String line) throws IOException {
+			if (line == null) {
+				throw new InterruptedIOException();
+			}
+
+			try {
+				return Long.parseUnsignedLong((line.indexOf(';') < 0 ? line : line.substring(0, line.indexOf(';'))).trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed chunk size", e);
+			}
+		}
+
+		private void part(Chunked pack, String item) throws IOException {
+			final Entry<String, Path> place = owner.paths.resolve(item);
+			final String path = place == null ? null : place.getKey();
+			final Path target = place == null ? null : place.getValue();
+			final Manifest.Node node = path == null || owner.index == null ? null : owner.index.find(path);
+			final int kind = path == null ? KIND_NONE : owner.index != null ? branch(node, path) : branch(target, path);
+			FileChannel chan = null;
+			Status status = path == null ? Status.CODE_402
+				: file(kind) ? Status.CODE_200
+				: (owner.index != null ? node != null : Files.exists(target)) ? Status.CODE_403
+				: Status.CODE_404;
+
+			if (status == Status.CODE_200) {
+				try {
+					chan = FileChannel.open(target, StandardOpenOption.READ);
+				} catch (IOException e) {
+					status = Status.CODE_404;
+				}
+			}
+
+			try (FileChannel in = chan) {
+				final long size = in == null ? 0 : node != null ? node.size() : in.size();
+				final String head = String.join(CRLF,
+					"--" + BOUNDARY,
+					CONTENT_INFO.print(Content.LOCATION, "/" + item),
+					PART_STATUS.print(status),
+					CONTENT_INFO.print(Content.LENGTH, size),
+					CRLF);
+
+				owner.tally.inc("batch.items");
+				pack.write(ByteBuffer.wrap(head.getBytes(UTF8)));
+
+				if (in != null) {
+					try (Spool task = new Spool(in, size, owner.send)) {
+						pack.send(task);
+					}
+				}
+
+				pack.write(ByteBuffer.wrap(CRLF.getBytes(UTF8)));
+			}
+		}
+
+		private boolean deliver(WritableByteChannel out, Path pivot, int flags) throws IOException {
+			watch(WRITE, owner.stall);
+
+			if (flags != KIND_NONE && spool == null) {
+				trace.phase(stage(flags));
+			}
+
+			switch (flags) {
+				case KIND_LIST: case KIND_LIST | KIND_FILE: case KIND_LIST | KIND_FILE | KIND_GZIP: {
+					final OutputStream proxy = Channels.newOutputStream(flow.meter(out));
+					final BasicFileAttributes[] attrs = { null };
+
+					if (entry != null) {
+						Manifest.Node item;
+						Iterator<Manifest.Node> iter = Stream.concat(Stream.of(entry), (flags & KIND_FILE) != 0
+							? Stream.empty()
+							: entry.items().stream()).iterator();
+
+						while (iter.hasNext()) {
+							item = iter.next();
+
+							chunk(proxy,
+								entry == item ? "." : item.name(),
+								Instant.ofEpochMilli(item.time()),
+								item.isDirectory() ? "-" : item.size());
+						}
+					} else if ((flags & KIND_FILE) == 0 && owner.peek != null) {
+						final BasicFileAttributes info = Files.readAttributes(pivot, BasicFileAttributes.class);
+
+						chunk(proxy, ".", info.lastModifiedTime().toInstant(), "-");
+
+						try (Roster list = Roster.open(pivot, owner.peek, owner.fans * 2)) {
+							Entry<Path, BasicFileAttributes> item;
+
+							owner.tally.add("list.stats", list.size());
+
+							while (list.hasNext()) {
+								item = list.next();
+
+								chunk(proxy,
+									item.getKey().getFileName(),
+									item.getValue().lastModifiedTime().toInstant(),
+									item.getValue().isDirectory() ? "-" : item.getValue().size());
+							}
+						}
+					} else {
+						try (Stream<Path> list = (flags & KIND_FILE) != 0
+							? Stream.of(pivot).filter(filter1(pivot, attrs))
+							: Files.find(pivot, 1, filterN(pivot, attrs))
+						) {
+							Path item;
+							Iterator<Path> iter = list.iterator();
+
+							while (iter.hasNext()) {
+								item = iter.next();
+
+								chunk(proxy,
+									pivot.equals(item) ? "." : item.getFileName(),
+									attrs[0].lastModifiedTime().toInstant(),
+									attrs[0].isDirectory() ? "-" : attrs[0].size());
+							}
+						}
+					}
+
+					proxy.write(EMPTY_CHUNK);
+					proxy.flush();
+				}	break;
+
+				case KIND_TAR: {
+					final BasicFileAttributes[] attrs = { null };
+
+					try (
+						Chunked pack = new Chunked(out, flow);
+						Stream<Path> list = Files.find(pivot, Integer.MAX_VALUE, filterN(pivot, attrs));
+					) {
+						Path item;
+						Iterator<Path> iter = list.iterator();
+
+						while (iter.hasNext()) {
+							if ((item = iter.next()).equals(pivot)) {
+								continue;
+							}
+
+							final BasicFileAttributes info = attrs[0];
+
+							pack.write(Tarball.header(label(pivot, item, info), info.isDirectory(), info.size(), info.lastModifiedTime().toMillis()));
+
+							if (info.isRegularFile()) {
+								try (
+									FileChannel in = FileChannel.open(item, StandardOpenOption.READ);
+									Spool task = new Spool(in, info.size(), owner.send);
+								) {
+									pack.send(task);
+								}
+
+								pack.write(Tarball.padding(info.size()));
+							}
+						}
+
+						pack.write(Tarball.trailer());
+						pack.finish();
+					}
+				}	break;
+
+				case KIND_ZIP: {
+					final BasicFileAttributes[] attrs = { null };
+
+					try (
+						Chunked pack = new Chunked(out, flow);
+						ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Channels.newOutputStream(pack), 1 << 16));
+						Stream<Path> list = Files.find(pivot, Integer.MAX_VALUE, filterN(pivot, attrs));
+					) {
+						Path item;
+						Iterator<Path> iter = list.iterator();
+
+						while (iter.hasNext()) {
+							if ((item = iter.next()).equals(pivot)) {
+								continue;
+							}
+
+							final ZipEntry info = new ZipEntry(label(pivot, item, attrs[0]));
+
+							info.setTime(attrs[0].lastModifiedTime().toMillis());
+							zip.putNextEntry(info);
+
+							if (attrs[0].isRegularFile()) {
+								Files.copy(item, zip);
+							}
+
+							zip.closeEntry();
+						}
+
+						zip.finish();
+						zip.flush();
+						pack.finish();
+					}
+				}	break;
+
+				case KIND_WATCH: {
+					final ByteBuffer hello = ByteBuffer.wrap(String.format("retry: 2000\nid: %d\nevent: ready\ndata: /%s\n\n", follow.cursor, follow.scope).getBytes(UTF8));
+
+					while (hello.hasRemaining()) {
+						out.write(hello);
+					}
+
+					detached = true;
+					free();
+					follow.line = socket.channel() == null ? null : owner.fanout.attach(socket.channel(), OUTBOX, () -> {
+						owner.tally.inc("feed.dropped");
+						close();
+					});
+					owner.tally.inc("feed.streams");
+					owner.feed.subscribe(follow.scope, follow.cursor, this::push);
+				}	break;
+
+				case KIND_POLL: case KIND_SUMS: {
+					final ByteBuffer data = ByteBuffer.wrap(answer);
+
+					while (data.hasRemaining()) {
+						out.write(data);
+					}
+				}	break;
+
+				case KIND_DELTA: {
+					try (
+						Chunked pack = new Chunked(out, flow);
+						FileChannel in = FileChannel.open(pivot, StandardOpenOption.READ);
+					) {
+						final Delta.Sums mine = owner.delta.sums(pivot, posted.sums.block());
+						final long sent = Delta.diff(in, mine, posted.sums, pack);
+
+						trace.bytes(sent);
+						owner.tally.inc("delta.patches");
+						owner.tally.add("delta.literal", sent);
+						owner.tally.add("delta.matched", mine.length() - sent);
+						pack.finish();
+					}
+				}	break;
+
+				case KIND_BATCH: {
+					try (Chunked pack = new Chunked(out, flow)) {
+						for (String item : posted.items) {
+							part(pack, item);
+						}
+
+						pack.write(ByteBuffer.wrap(("--" + BOUNDARY + "--" + CRLF).getBytes(UTF8)));
+						pack.finish();
+					}
+				}	break;
+
+				case KIND_MEMBER: case KIND_MEMBER_GZIP: {
+					if (spool == null) {
+						if (flags == KIND_MEMBER_GZIP) {
+							for (ByteBuffer head = Archive.prefix(); head.hasRemaining(); ) {
+								out.write(head);
+							}
+						}
+
+						owner.spools.add(spool = new Spool(archive.volume.channel(), archive.volume.data(archive.member), flags == KIND_MEMBER_GZIP ? archive.member.packed() : length, owner.send));
+					}
+
+					boolean over = true;
+
+					try {
+						over = copy(spool, out, flow);
+
+						if (over && flags == KIND_MEMBER_GZIP) {
+							for (ByteBuffer tail = Archive.suffix(archive.member); tail.hasRemaining(); ) {
+								out.write(tail);
+							}
+						}
+					} finally {
+						if (over) {
+							unwind();
+						}
+					}
+
+					return over;
+				}
+
+				case KIND_MEMBER_INFLATE: {
+					try (ReadableByteChannel in = archive.volume.inflate(archive.member)) {
+						final ByteBuffer data = ByteBuffer.allocate(1 << 16);
+						long done = 0;
+
+						while (in.read(data) >= 0) {
+							data.flip();
+							flow.pace(data.remaining());
+							done += data.remaining();
+
+							while (data.hasRemaining()) {
+								out.write(data);
+							}
+
+							data.clear();
+						}
+
+						trace.bytes(done);
+						owner.tally.add("store.inflated", done);
+					}
+				}	break;
+
+				case KIND_FILE: case KIND_FILE | KIND_GZIP: {
+					if (spool == null) {
+						source = FileChannel.open(pivot, StandardOpenOption.READ);
+						owner.spools.add(spool = new Spool(source, length, owner.send));
+					}
+
+					boolean over = true;
+
+					try {
+						over = copy(spool, out, flow);
+					} finally {
+						if (over) {
+							unwind();
+						}
+					}
+
+					return over;
+				}
+			}
+
+			return true;
+		}
+
+		private void unwind() {
+			if (spool != null) {
+				spool.close();
+				owner.spools.remove(spool);
+				owner.tally.inc("xfer.count");
+				owner.tally.inc("xfer." + Spool.name(spool.mode()));
+				owner.tally.add("xfer.steps", spool.steps());
+				owner.tally.add("xfer.bytes", spool.position());
+				trace.bytes(spool.position());
+				owner.tally.add("xfer.us", spool.elapsed() / 1000);
+				owner.tally.add("xfer.short", spool.done() ? 0 : 1);
+				spool = null;
+			}
+
+			if (source != null) {
+				try {
+					source.close();
+				} catch (IOException e) {
+				} finally {
+					source = null;
+				}
+			}
+
+			if (archive != null) {
+				archive.volume.release();
+				archive = null;
+			}
+		}
+
+		private int stock(String reqFile, Version resVer) throws IOException {
+			archive = new Unpack(owner.store.acquire());
+			entry = archive.volume.find(reqFile);
+
+			final int flags = branch(entry, reqFile);
+
+			switch (flags) {
+				case KIND_LIST: case KIND_LIST | KIND_FILE: case KIND_LIST | KIND_FILE | KIND_GZIP:
+					append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+					append(response, CONTENT_INFO.print(Content.TYPE, "text/plain; charset=utf-8"));
+					append(response, TRANSFER_INFO.print(Transfer.ENCODING, "chunked"));
+					return flags;
+				case KIND_FILE: case KIND_FILE | KIND_GZIP:
+					final Archive.Item member = archive.member = (Archive.Item)entry;
+
+					if (member.method() != Archive.STORED && member.method() != Archive.DEFLATED) {
+						break;
+					} else if (member.method() == Archive.DEFLATED && flags == KIND_FILE && accepts("gzip")) {
+						append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+						append(response, CONTENT_INFO.print(Content.ENCODING, "gzip"));
+						append(response, VARY.print("Accept-Encoding"));
+						append(response, CONTENT_INFO.print(Content.LENGTH, length = member.packed() + 18));
+						return KIND_MEMBER_GZIP;
+					}
+
+					append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+
+					if (member.method() == Archive.DEFLATED && flags == KIND_FILE) {
+						append(response, VARY.print("Accept-Encoding"));
+					}
+
+					if (flags == (KIND_FILE | KIND_GZIP)) {
+						append(response, CONTENT_INFO.print(Content.ENCODING, "gzip"));
+					}
+
+					append(response, CONTENT_INFO.print(Content.LENGTH, length = member.size()));
+					return member.method() == Archive.STORED ? KIND_MEMBER : KIND_MEMBER_INFLATE;
+			}
+
+			append(response, STATUS_LINE.print(resVer, entry != null ? Status.CODE_403 : Status.CODE_404));
+
+			return KIND_NONE;
+		}
+
+		private Entry<Path, Integer> process(BufferedWriter out) throws IOException {
+			Path pivot = null;
+			URI hatch = null;
+			int flags = KIND_NONE;
+			Version resVer = Version.SPEC_1X;
+			boolean keep = false;
+			boolean shut = false;
+
+			trace.phase("route");
+
+			try {
+				if (redirect != null) {
+					System.err.println("REDIRECT");
+				}
+
+				final Map<Entity, String> $entity = new HashMap<>();
+				final Map<Field, String> $header = new HashMap<>();
+
+				for (String line : request) {
+					if (HEADER_LINE.scan(line, $header)) {
+						if (Header.cast($header.get(Field.NAME), null) == Header.CONNECTION) {
+							for (String token : $header.get(Field.VALUE).split(",")) {
+								keep |= Persist.KEEP_ALIVE.equals(token.trim().toLowerCase());
+								shut |= Persist.NO_PERSIST.equals(token.trim().toLowerCase());
+							}
+						}
+					} else if (pivot == null && hatch == null) {
+						if (GET_ENTITY.scan(line, $entity)) {
+							final String reqUrl = $entity.get(Entity.FILE);
+							final Entry<String, Path> reqPath = owner.paths != null ? owner.paths.resolve(reqUrl) : null;
+							resVer = Version.cast($entity.get(Entity.HTTP), Version.SPEC_1X);
+
+							if (redirect != null || owner.store != null ? Target.decode(reqUrl) == null : reqPath == null) {
+								pivot = null;
+								flags = KIND_NONE;
+
+								response.clear();
+								append(response, STATUS_LINE.print(resVer, Status.CODE_402));
+							} else if (owner.store != null) {
+								flags = stock(Target.decode(reqUrl), resVer);
+							} else if (redirect == null) {
+								final String reqFile = reqPath.getKey();
+								final String reqPack = query(reqUrl, "archive");
+								final String reqWatch = query(reqUrl, "watch");
+								final String reqSums = query(reqUrl, "sums");
+
+								pivot = reqPath.getValue();
+								entry = owner.index != null ? owner.index.find(reqFile) : null;
+								flags = owner.index != null ? branch(entry, reqFile) : branch(pivot, reqFile);
+								flags = flags != KIND_LIST || reqPack == null ? flags
+									: reqPack.equals("tar") ? KIND_TAR
+									: reqPack.equals("zip") ? KIND_ZIP
+									: flags;
+
+								flags = flags != KIND_LIST || reqWatch == null || owner.feed == null ? flags
+									: String.valueOf(header(Header.ACCEPT)).contains("text/event-stream") ? KIND_WATCH
+									: KIND_POLL;
+
+								flags = !file(flags) || reqSums == null || owner.delta == null ? flags : KIND_SUMS;
+
+								if (owner.heat != null && (file(flags) || list(flags))) {
+									owner.heat.record(reqUrl.indexOf('?') < 0 ? reqUrl : reqUrl.substring(0, reqUrl.indexOf('?')));
+								}
+
+								switch (flags) {
+									case KIND_WATCH:
+										follow = new Follow(scope(reqFile), cursor(reqWatch.isEmpty() ? header(Header.LAST_EVENT) : reqWatch));
+										shut = true;
+
+										append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+										append(response, CONTENT_INFO.print(Content.TYPE, "text/event-stream; charset=utf-8"));
+										append(response, CACHE_CONTROL.print("no-cache"));
+										break;
+									case KIND_POLL: {
+										final Feed.Page page = owner.feed.since(cursor(reqWatch), scope(reqFile));
+										final long millis = lapse(query(reqUrl, "wait"));
+
+										owner.tally.inc("feed.polls");
+
+										if (page.events().isEmpty() && !page.reset() && millis > 0) {
+											follow = new Follow(scope(reqFile), page.cursor());
+											follow.lapse = millis;
+											follow.version = resVer;
+										} else {
+											answer(page, resVer);
+										}
+									}	break;
+									case KIND_SUMS:
+										trace.phase("sums");
+										owner.tally.inc("delta.sums");
+										answer = owner.delta.sums(pivot, block(reqSums)).print().getBytes(UTF8);
+
+										append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+										append(response, CONTENT_INFO.print(Content.TYPE, "text/plain; charset=utf-8"));
+										append(response, CONTENT_INFO.print(Content.LENGTH, answer.length));
+										break;
+									case KIND_TAR: case KIND_ZIP:
+										append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+										append(response, CONTENT_INFO.print(Content.TYPE, flags == KIND_TAR ? "application/x-tar" : "application/zip"));
+										append(response, CONTENT_INFO.print(Content.DISPOSITION, String.format("attachment; filename=\"%s.%s\"",
+											reqFile.isEmpty() || pivot.getFileName() == null ? "root" : pivot.getFileName(), reqPack)));
+										append(response, TRANSFER_INFO.print(Transfer.ENCODING, "chunked"));
+										break;
+									case KIND_LIST: case KIND_LIST | KIND_FILE: case KIND_LIST | KIND_FILE | KIND_GZIP:
+										append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+										append(response, CONTENT_INFO.print(Content.TYPE, "text/plain; charset=utf-8"));
+										append(response, TRANSFER_INFO.print(Transfer.ENCODING, "chunked"));
+										break;
+									case KIND_FILE | KIND_GZIP:
+										append(response, CONTENT_INFO.print(Content.ENCODING, "gzip"));
+									case KIND_FILE:
+										append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+										append(response, CONTENT_INFO.print(Content.LENGTH, length = entry != null ? entry.size() : Files.size(pivot)));
+										break;
+									default:
+										flags = KIND_NONE;
+										append(response, STATUS_LINE.print(resVer, (owner.index != null ? entry != null : Files.exists(pivot))
+											? Status.CODE_403
+											: Status.CODE_404));
+										break;
+								}
+							} else {
+								hatch = redirect.route(reqUrl, Target.decode(reqUrl));
+
+								append(response, STATUS_LINE.print(resVer, Status.CODE_302));
+								append(response, LOCATION.print(hatch));
+							}
+						} else if (POST_ENTITY.scan(line, $entity)) {
+							final String reqUrl = $entity.get(Entity.FILE);
+							final boolean reqDelta = query(reqUrl, "delta") != null && owner.delta != null && owner.paths.resolve(reqUrl) != null;
+							resVer = Version.cast($entity.get(Entity.HTTP), Version.SPEC_1X);
+
+							if (posted == null || Target.decode(reqUrl) == null || owner.paths == null || query(reqUrl, "batch") == null && !reqDelta) {
+								flags = KIND_NONE;
+								shut |= posted == null || posted.text == null;
+
+								append(response, STATUS_LINE.print(resVer, Status.CODE_405));
+							} else if (reqDelta ? posted.length < 0 || posted.length > DELTA_LIMIT : posted.text == null) {
+								flags = KIND_NONE;
+								shut = true;
+
+								append(response, STATUS_LINE.print(resVer, Status.CODE_413));
+							} else if (reqDelta) {
+								final Entry<String, Path> reqPath = owner.paths.resolve(reqUrl);
+
+								pivot = reqPath.getValue();
+								entry = owner.index != null ? owner.index.find(reqPath.getKey()) : null;
+								flags = owner.index != null ? branch(entry, reqPath.getKey()) : branch(pivot, reqPath.getKey());
+								posted.sums = file(flags) ? signature() : null;
+								shut |= posted.sums == null;
+
+								if (posted.sums != null) {
+									flags = KIND_DELTA;
+
+									append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+									append(response, CONTENT_INFO.print(Content.TYPE, "application/octet-stream"));
+									append(response, TRANSFER_INFO.print(Transfer.ENCODING, "chunked"));
+								} else {
+									append(response, STATUS_LINE.print(resVer, file(flags) ? Status.CODE_400
+										: (owner.index != null ? entry != null : Files.exists(pivot)) ? Status.CODE_403
+										: Status.CODE_404));
+									flags = KIND_NONE;
+								}
+							} else {
+								final String reqFile = reqUrl.indexOf('?') < 0 ? reqUrl : reqUrl.substring(0, reqUrl.indexOf('?'));
+
+								flags = KIND_BATCH;
+								posted.items = new ArrayList<>();
+
+								for (String item : posted.text.split("[\r\n]+")) {
+									if (!item.trim().isEmpty()) {
+										posted.items.add(reqFile.isEmpty() || reqFile.endsWith("/") ? reqFile + item.trim() : reqFile + "/" + item.trim());
+									}
+								}
+
+								append(response, STATUS_LINE.print(resVer, Status.CODE_200));
+								append(response, CONTENT_INFO.print(Content.TYPE, "multipart/mixed; boundary=" + BOUNDARY));
+								append(response, TRANSFER_INFO.print(Transfer.ENCODING, "chunked"));
+							}
+						} else if (PUT_ENTITY.scan(line, $entity)) {
+							final Entry<String, Path> reqPath = owner.paths != null ? owner.paths.resolve($entity.get(Entity.FILE)) : null;
+							final boolean chunked = "chunked".equalsIgnoreCase(header(Header.TRANSFER));
+							final long bytes = chunked ? 0 : declared();
+							resVer = Version.cast($entity.get(Entity.HTTP), Version.SPEC_1X);
+							flags = KIND_NONE;
+							shut = true;
+
+							if (reqPath == null || redirect != null || owner.auth == null) {
+								append(response, STATUS_LINE.print(resVer, Status.CODE_405));
+							} else if (!MessageDigest.isEqual(owner.auth.getBytes(UTF8), Objects.toString(header(Header.AUTHORIZATION), "").getBytes(UTF8))) {
+								append(response, STATUS_LINE.print(resVer, Status.CODE_401));
+								append(response, CHALLENGE.print("Bearer realm=\"arachnid\""));
+							} else if (reqPath.getKey().isEmpty() || reqPath.getKey().endsWith("/") || Files.isDirectory(pivot = reqPath.getValue())) {
+								append(response, STATUS_LINE.print(resVer, Status.CODE_403));
+							} else if (bytes < 0 || !chunked && header(Header.LENGTH) == null) {
+								append(response, STATUS_LINE.print(resVer, Status.CODE_411));
+							} else {
+								proceed();
+
+								append(response, STATUS_LINE.print(resVer, upload(reqPath, bytes, chunked) ? Status.CODE_201 : Status.CODE_200));
+								shut = false;
+							}
+						}
+					}
+				}
+			} catch (IOException e) {
+				response.clear();
+				append(response, STATUS_LINE.print(Version.SPEC_1X, Status.CODE_500));
+				pivot = null;
+				flags = KIND_NONE;
+				shut = true;
+			} finally {
+				served++;
+				keeping = keep;
+				session = !shut
+					&& !owner.stopping
+					&& (keep || resVer == Version.SPEC_11)
+					&& served < owner.reqs;
+
+				owner.tally.inc(served > 1 ? "conn.reused" : "conn.fresh");
+
+				if (!polling()) {
+					respond(out, flags);
+				}
+			}
+
+			return new SimpleImmutableEntry<>(pivot, flags);
+		}
+
+		private void respond(BufferedWriter out, int flags) throws IOException {
+			if (!response.isEmpty()) {
+				if (flags == KIND_NONE) {
+					append(response, CONTENT_INFO.print(Content.LENGTH, 0));
+				}
+
+				if (!session) {
+					append(response, CONNECTION.print(Persist.NO_PERSIST));
+				} else if (keeping) {
+					append(response, CONNECTION.print(Persist.KEEP_ALIVE));
+					append(response, PERSIST_INFO.print(owner.idle / 1000, owner.reqs - served));
+				}
+			}
+
+			trace.phase("head");
+			dump(socket, response, "RES");
+
+			for (String line : response) {
+				out.write(line);
+				out.write(CRLF);
+			}
+
+			out.write(CRLF);
+			out.flush();
+		}
+
+		private void record(int flags) {
+			try {
+				owner.tape.record(serial, served, arrived, System.nanoTime(),
+					request.get(0), response.isEmpty() ? null : response.get(0), flags, length, flow.sent() - metered);
+			} catch (IOException e) {
+				owner.tally.inc("tape.failed");
+			}
+		}
+
+		private boolean iterate() throws IOException {
+			if (held == null) {
+				if (!clear() || !process(reader)) {
+					return false;
+				}
+
+				begun = System.nanoTime();
+				watch(WRITE, owner.stall);
+				held = process(writer);
+
+				if (polling()) {
+					watch(NONE, 0);
+					owner.gate.sample(System.nanoTime() - begun);
+					trace.phase("poll");
+					return true;
+				}
+
+				if (runner == null && !bulky && owner.bulky(held.getValue(), length)) {
+					watch(NONE, 0);
+					owner.gate.sample(System.nanoTime() - begun);
+					owner.tally.inc("lane.bulk.deferred");
+					trace.phase("lane");
+					return true;
+				}
+			} else if (polling()) {
+				follow.lapse = 0;
+				begun = System.nanoTime();
+				watch(WRITE, owner.stall);
+				answer(follow.waited, follow.version);
+				respond(writer, held.getValue());
+			}
+
+			boolean over = true;
+
+			try {
+				over = deliver(socket.sink(), held.getKey(), held.getValue());
+			} finally {
+				watch(NONE, 0);
+
+				if (over) {
+					end = 0;
+					unwind();
+
+					if (!bulky) {
+						owner.gate.sample(System.nanoTime() - begun);
+					}
+
+					if (owner.tape != null) {
+						record(held.getValue());
+					}
+
+					held = null;
+					trace.finish(response.isEmpty() ? null : response.get(0));
+				}
+			}
+
+			return !response.isEmpty();
+		}
+
+
+		boolean turn() {
+			working = true;
+
+			try {
+				if (reader == null) {
+					owner.tally.inc("admit.admitted");
+					owner.tally.add("admit.wait.us", (System.nanoTime() - born) / 1000);
+
+					socket.timeout(owner.idle);
+
+					if (owner.wheel != null) {
+						owner.wheel.schedule(this, System.nanoTime() + SECOND);
+					}
+					reader = new Inlet(socket.input(), 1 << 13);
+					writer = new BufferedWriter(Channels.newWriter(socket.sink(), UTF8));
+				}
+
+				while (iterate()) {
+					if (held != null || detached) {
+						return false;
+					} else if (!session) {
+						break;
+					} else if (!reader.ready()) {
+						return true;
+					}
+				}
+
+				owner.tally.inc(served < owner.reqs ? "conn.closed" : "conn.reqs.closed");
+			} catch (SocketTimeoutException e) {
+				owner.tally.inc("conn.idle.closed");
+			} catch (IOException e) {
+				owner.tally.inc("conn.dropped");
+			} finally {
+				working = false;
+			}
+
+			return false;
+		}
+
+		boolean held() {
+			return held != null;
+		}
+
+		boolean kept() {
+			return held != null || detached;
+		}
+
+		private boolean polling() {
+			final Follow wait = follow;
+
+			return wait != null && wait.lapse > 0;
+		}
+
+		void carry(Runnable resume) {
+			if (polling()) {
+				await(resume);
+				return;
+			}
+
+			bulky = true;
+			carried = System.nanoTime();
+
+			try {
+				owner.bulk.execute(() -> drift(resume));
+			} catch (RejectedExecutionException e) {
+				owner.tally.inc("lane.bulk.inline");
+				drift(resume);
+			}
+		}
+
+		private void drift(Runnable resume) {
+			boolean open = false;
+
+			owner.tally.add("lane.bulk.wait.us", (System.nanoTime() - carried) / 1000);
+
+			try {
+				open = turn();
+			} finally {
+				if (held != null) {
+					carry(resume);
+				} else if (open) {
+					bulky = false;
+					resume.run();
+				} else if (!detached) {
+					close();
+				}
+			}
+		}
+
+		@Override
+		public long expire(long now) {
+			final long at = due == 0 ? 0
+				: phase == WRITE ? Math.max(due, flow.moved() + owner.stall)
+				: phase == BODY ? due + TimeUnit.SECONDS.toNanos(reader.taken() - drained) / owner.drip
+				: due;
+			final long cap = end != 0 && (at == 0 || end < at) ? end : at;
+
+			if (closed) {
+				return 0;
+			} else if (cap == 0 || now < cap) {
+				return cap == 0 ? now + SECOND : Math.min(cap, now + SECOND);
+			}
+
+			owner.tally.inc(cap == end ? "deadline.total" : "deadline." + PHASES[phase]);
+			closed = true;
+
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+
+			return 0;
+		}
+
+		void halt(boolean force) {
+			if (!working && (held == null || polling())) {
+				close();
+			} else if (force || waiting) {
+				closed = true;
+
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		void close() {
+			if (gone.getAndSet(true)) {
+				return;
+			}
+
+			closed = true;
+
+			try {
+				unwind();
+				socket.close();
+			} catch (IOException e) {
+			} finally {
+				owner.live.remove(this);
+				free();
+			}
+		}
+
+		/** Gives back the connection slot, once; a stream subscriber gives it back as soon as it detaches. */
+		private void free() {
+			if (!freed.getAndSet(true)) {
+				owner.release();
+			}
+		}
+
+
+		@Override
+		public void run() {
+			try {
+				while (turn());
+			} finally {
+				if (!kept()) {
+					close();
+				}
+
+				owner.settle();
+
+				if (held != null) {
+					carry(() -> owner.dispatch(this, this, runner));
+				}
+			}
+		}
+
+
+		/**
+		 * A change feed request: the scope and cursor it reads from, then either the long-poll it parks or the stream it feeds.
+		 */
+		private static final class Follow {
+
+			private final String scope;
+			private final long cursor;
+			private long lapse;
+			private Version version;
+			private volatile Feed.Page waited;
+			private Fanout.Line line;
+
+
+			private Follow(String scope, long cursor) {
+				this.scope = scope;
+				this.cursor = cursor;
+			}
+
+		}
+
+		/**
+		 * A request served from an archive root: the volume it holds until delivered, and the member it reads.
+		 */
+		private static final class Unpack {
+
+			private final Archive.Volume volume;
+			private Archive.Item member;
+
+
+			private Unpack(Archive.Volume volume) {
+				this.volume = volume;
+			}
+
+		}
+
+		/**
+		 * A POST body: its declared length, its text when small enough to buffer, and the batch or signature read from it.
+		 */
+		private static final class Posted {
+
+			private final long length;
+			private String text;
+			private List<String> items;
+			private Delta.Sums sums;
+
+
+			private Posted(long length) {
+				this.length = length;
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Compares the latency and throughput of one server over TCP loopback and over its Unix domain socket.
+ * <p>
+ * Usage: {@code java -cp <cp> BFS.Loopback <port> <socket> <small-file> <large-file> [requests]}.
+ */
+public final class Loopback {
+
+	private static final int BATCH = 50;
+
+
+	private Loopback() {
+	}
+
+
+	private static SocketChannel open(int port, Path sock) throws IOException {
+		return sock == null ? SocketChannel.open(new InetSocketAddress("127.0.0.1", port)) : Transport.Local.connect(sock);
+	}
+
+	private static int head(SocketChannel chan, ByteBuffer buf) throws IOException {
+		while (true) {
+			for (int i = 3; i < buf.position(); i++) {
+				if (buf.get(i - 3) == '\r' && buf.get(i - 2) == '\n' && buf.get(i - 1) == '\r' && buf.get(i) == '\n') {
+					return i + 1;
+				}
+			}
+
+			if (!buf.hasRemaining() || chan.read(buf) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	private static long fetch(SocketChannel chan, ByteBuffer buf, String target) throws IOException {
+		chan.write(ByteBuffer.wrap(("GET /" + target + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+
+		final int end = head(chan, buf);
+		final String text = new String(buf.array(), 0, end, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+		final int mark = text.indexOf("content-length:");
+		final long length = mark < 0 ? 0 : Long.parseLong(text.substring(mark + 15, text.indexOf('\r', mark)).trim());
+		long left = length - (buf.position() - end);
+
+		buf.clear();
+
+		while (left > 0) {
+			final int step = chan.read(buf);
+
+			if (step < 0) {
+				throw new EOFException();
+			}
+
+			left -= step;
+			buf.clear();
+		}
+
+		if (left < 0) {
+			throw new IOException("Pipelined bytes after " + target);
+		}
+
+		return length;
+	}
+
+	private static List<Long> latency(int port, Path sock, String target, int count) throws IOException {
+		final List<Long> runs = new ArrayList<>();
+		final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+
+		for (int done = 0; done < count; ) {
+			try (SocketChannel chan = open(port, sock)) {
+				for (int i = 0; i < BATCH && done < count; i++, done++) {
+					final long t0 = System.nanoTime();
+
+					fetch(chan, buf, target);
+					runs.add(System.nanoTime() - t0);
+				}
+			}
+		}
+
+		Collections.sort(runs);
+
+		return runs;
+	}
+
+	private static double throughput(int port, Path sock, String target, int count) throws IOException {
+		final ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+		final long t0 = System.nanoTime();
+		long bytes = 0;
+
+		try (SocketChannel chan = open(port, sock)) {
+			for (int i = 0; i < count; i++) {
+				bytes += fetch(chan, buf, target);
+			}
+		}
+
+		return bytes / 1e6 / ((System.nanoTime() - t0) / 1e9);
+	}
+
+	private static void report(String label, List<Long> runs, double rate) {
+		System.err.println(String.format("LOOPBACK %s median=%.1fus p99=%.1fus max=%.1fus requests=%d throughput=%.0fMB/s",
+			label,
+			runs.get(runs.size() / 2) / 1e3,
+			runs.get(runs.size() * 99 / 100) / 1e3,
+			runs.get(runs.size() - 1) / 1e3,
+			runs.size(),
+			rate));
+	}
+
+
+	public static void main(
+		String... args
+	) throws Exception {
+		final int port = Integer.parseInt(args[0]);
+		final Path sock = Paths.get(args[1]);
+		final String small = args[2];
+		final String large = args[3];
+		final int count = args.length > 4 ? Integer.parseInt(args[4]) : 5000;
+
+		latency(port, null, small, count / 10);
+		latency(port, sock, small, count / 10);
+
+		final List<Long> tcp = latency(port, null, small, count);
+		final List<Long> uds = latency(port, sock, small, count);
+
+		report("tcp", tcp, throughput(port, null, large, 20));
+		report("unix", uds, throughput(port, sock, large, 20));
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS;
+
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+
+import javax.swing.JFileChooser;
+import javax.swing.UIManager;
+import javax.swing.UnsupportedLookAndFeelException;
+
+
+/**
+ * The web-root dialog, kept apart so that AWT and Swing only load when it is shown.
+ */
+final class Picker {
+
+	private Picker() {
+	}
+
+
+	static File pick(File curr) {
+		if (GraphicsEnvironment.isHeadless()) {
+			return curr;
+		}
+
+		JFileChooser picker = new JFileChooser();
+		picker.setDialogTitle("Choose the web-root location");
+		picker.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		picker.setMultiSelectionEnabled(false);
+		picker.setDragEnabled(false);
+		picker.setCurrentDirectory(curr);
+
+		try {
+			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+			picker.updateUI();
+			UIManager.setLookAndFeel(UIManager.getCrossPlatformLookAndFeelClassName());
+		} catch (ReflectiveOperationException|UnsupportedLookAndFeelException wtf) {
+			;
+		}
+
+		return picker.showOpenDialog(null) == JFileChooser.APPROVE_OPTION ?
+			picker.getSelectedFile() : curr;
+	}
+
+}
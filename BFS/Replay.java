@@ -0,0 +1,403 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import BFS.io.Tape;
+
+
+/**
+ * Replays a tape captured through the 'tape' key against a server on a generated root of matching file sizes.
+ * <p>
+ * Usage: {@code java -cp <cp> BFS.Replay <tape> [speed] [wire]}; a speed of 2 replays twice as fast,
+ * 0 sends every request as soon as its connection is free. The replay is taped as well, so both runs
+ * compare by the server's own timings besides the latency seen by the client.
+ */
+public final class Replay {
+
+	private Replay() {
+	}
+
+
+	private static String line(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+
+		for (int c; (c = in.read()) != '\n'; ) {
+			if (c < 0) {
+				throw new EOFException();
+			} else if (c != '\r') {
+				out.write(c);
+			}
+		}
+
+		return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	private static String path(String target) {
+		final String raw = target.indexOf('?') < 0 ? target : target.substring(0, target.indexOf('?'));
+
+		try {
+			return URI.create(raw).getPath();
+		} catch (IllegalArgumentException e) {
+			return raw;
+		}
+	}
+
+	private static boolean folder(int kind) {
+		return kind == Engine.KIND_LIST || kind == Engine.KIND_TAR || kind == Engine.KIND_ZIP || kind == Engine.KIND_WATCH || kind == Engine.KIND_POLL;
+	}
+
+	private static boolean playable(Tape.Record item) {
+		return item.method().equals("GET") && item.kind() != Engine.KIND_WATCH;
+	}
+
+	private static long build(Path home, List<Tape.Record> plan) throws IOException {
+		final Map<Path, Long> files = new LinkedHashMap<>();
+		final Set<Path> dirs = new HashSet<>();
+		final ByteBuffer fill = ByteBuffer.allocate(1 << 16);
+		long total = 0;
+
+		for (Tape.Record item : plan) {
+			final String name = path(item.target()).replaceAll("^/+|/+$", "");
+			final Path where = home.resolve(name).normalize();
+
+			if (item.status() != 200 || !where.startsWith(home)) {
+				continue;
+			} else if (folder(item.kind())) {
+				dirs.add(where);
+			} else if ((item.kind() & Engine.KIND_FILE) != 0 || (item.kind() & Engine.KIND_ARCHIVE) != 0) {
+				files.merge(where, item.size(), Math::max);
+			}
+		}
+
+		for (Path item : dirs) {
+			Files.createDirectories(item);
+		}
+
+		for (Map.Entry<Path, Long> item : files.entrySet()) {
+			Files.createDirectories(item.getKey().getParent());
+
+			try (FileChannel out = FileChannel.open(item.getKey(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				for (long left = item.getValue(); left > 0; left -= out.write(fill)) {
+					fill.clear().limit((int)Math.min(fill.capacity(), left));
+				}
+			}
+
+			total += item.getValue();
+		}
+
+		System.err.println(String.format("REPLAY root %s files=%d dirs=%d bytes=%d", home, files.size(), dirs.size(), total));
+
+		return total;
+	}
+
+	private static long exchange(Socket sock, InputStream in, String target) throws IOException {
+		final OutputStream out = sock.getOutputStream();
+
+		out.write(("GET " + target + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+
+		final String status = line(in);
+		final byte[] skip = new byte[1 << 16];
+		boolean chunked = false;
+		boolean close = false;
+		long length = -1;
+		long count = 0;
+
+		for (String field = line(in).toLowerCase(Locale.ROOT); !field.isEmpty(); field = line(in).toLowerCase(Locale.ROOT)) {
+			if (field.startsWith("transfer-encoding:")) {
+				chunked = field.contains("chunked");
+			} else if (field.startsWith("content-length:")) {
+				length = Long.parseLong(field.substring(15).trim());
+			} else if (field.startsWith("connection:")) {
+				close = field.contains("close");
+			}
+		}
+
+		if (chunked) {
+			for (long size; (size = Long.parseLong(line(in).split(";")[0].trim(), 16)) > 0; line(in)) {
+				for (long left = size; left > 0; ) {
+					final int step = in.read(skip, 0, (int)Math.min(skip.length, left));
+
+					if (step < 0) {
+						throw new EOFException();
+					}
+
+					left -= step;
+					count += step;
+				}
+			}
+
+			line(in);
+		} else {
+			for (long left = length < 0 ? Long.MAX_VALUE : length; left > 0; ) {
+				final int step = in.read(skip, 0, (int)Math.min(skip.length, left));
+
+				if (step < 0 && length < 0) {
+					close = true;
+					break;
+				} else if (step < 0) {
+					throw new EOFException();
+				}
+
+				left -= step;
+				count += step;
+			}
+		}
+
+		if (close) {
+			sock.close();
+		}
+
+		return (long)Integer.parseInt(status.substring(9, 12)) << 48 | count;
+	}
+
+	private static void play(int port, List<Tape.Record> wire, Map<Tape.Record, long[]> seen, long t0, long first, double speed, AtomicInteger reconnects) {
+		Socket sock = null;
+		InputStream in = null;
+
+		try {
+			for (Tape.Record item : wire) {
+				final long due = speed > 0 ? t0 + (long)(TimeUnit.MICROSECONDS.toNanos(item.start() - first) / speed) : 0;
+				final long wait = due - System.nanoTime();
+
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+
+				for (int attempt = 0; ; attempt++) {
+					if (sock == null || sock.isClosed()) {
+						if (sock != null) {
+							reconnects.incrementAndGet();
+						}
+
+						sock = new Socket();
+						sock.setTcpNoDelay(true);
+						sock.connect(new InetSocketAddress("127.0.0.1", port), 5000);
+						in = new BufferedInputStream(sock.getInputStream(), 1 << 16);
+					}
+
+					final long begun = System.nanoTime();
+
+					try {
+						final long answer = exchange(sock, in, item.target());
+
+						seen.put(item, new long[] { answer >>> 48, answer & 0xffffffffffffL, System.nanoTime() - begun });
+						break;
+					} catch (IOException e) {
+						sock.close();
+
+						if (attempt > 0) {
+							throw e;
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (sock != null) {
+				try {
+					sock.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private static boolean gapped(List<Tape.Record> wire) {
+		for (int i = 0; i < wire.size(); i++) {
+			if (wire.get(i).seq() != i + 1) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static long span(List<Tape.Record> list) {
+		final long from = list.stream().mapToLong(Tape.Record::start).min().orElse(0);
+		final long till = list.stream().mapToLong(item -> item.start() + item.micros()).max().orElse(0);
+
+		return Math.max(1, till - from);
+	}
+
+	private static double rank(List<Long> sorted, double share) {
+		return sorted.isEmpty() ? 0 : sorted.get((int)Math.min(sorted.size() - 1, Math.floor(sorted.size() * share))) / 1e3;
+	}
+
+	private static String delta(double was, double now) {
+		return was == 0 ? "n/a" : String.format("%+.1f%%", (now - was) * 100 / was);
+	}
+
+	private static void compare(String label, List<Long> was, List<Long> now) {
+		was.sort(null);
+		now.sort(null);
+
+		for (double share : new double[] { .5, .9, .99, 1 }) {
+			System.err.println(String.format("REPLAY %s p%s recorded=%.2fms replayed=%.2fms delta=%s",
+				label,
+				share == 1 ? "max" : String.valueOf((int)(share * 100)),
+				rank(was, share),
+				rank(now, share),
+				delta(rank(was, share), rank(now, share))));
+		}
+	}
+
+
+	public static void main(
+		String... args
+	) throws Exception {
+		final Tape.Reel reel = Tape.read(Paths.get(args[0]));
+		final double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+		final String wire = args.length > 2 ? args[2] : "channel";
+		final List<Tape.Record> plan = reel.records().stream()
+			.sorted(Comparator.comparingLong(Tape.Record::start))
+			.collect(Collectors.toList());
+		final List<Tape.Record> sent = plan.stream().filter(Replay::playable).collect(Collectors.toList());
+		final Map<Integer, List<Tape.Record>> tapes = plan.stream()
+			.collect(Collectors.groupingBy(Tape.Record::wire, LinkedHashMap::new, Collectors.toList()));
+		final Map<Integer, List<Tape.Record>> wires = sent.stream()
+			.collect(Collectors.groupingBy(Tape.Record::wire, LinkedHashMap::new, Collectors.toList()));
+		final Map<Tape.Record, long[]> seen = new ConcurrentHashMap<>();
+		final Path home = Files.createTempDirectory("arachnid-replay-");
+		final Path echo = Files.createTempFile("arachnid-", ".tape");
+		final AtomicInteger reconnects = new AtomicInteger();
+		final Properties config = new Properties();
+		final long took;
+
+		if (plan.isEmpty()) {
+			throw new IOException("The tape holds no requests");
+		}
+
+		try {
+			if (reel.relay()) {
+				config.setProperty("goto", "http://127.0.0.1:9/");
+				config.setProperty("beat", "0");
+			} else {
+				build(home, plan);
+				config.setProperty("root", home.toString());
+			}
+
+			config.setProperty("wire", wire);
+			config.setProperty("tape", echo.toString());
+
+			try (Server server = Server.start(config)) {
+				final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+				final ExecutorService pool = Executors.newCachedThreadPool();
+				final CountDownLatch done = new CountDownLatch(wires.size());
+				final long first = plan.get(0).start();
+				final long t0 = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+
+				for (List<Tape.Record> item : wires.values()) {
+					final long due = speed > 0 ? t0 + (long)(TimeUnit.MICROSECONDS.toNanos(item.get(0).start() - first) / speed) : t0;
+
+					timer.schedule(() -> pool.execute(() -> {
+						try {
+							play(server.port(), item, seen, t0, first, speed, reconnects);
+						} finally {
+							done.countDown();
+						}
+					}), due - System.nanoTime(), TimeUnit.NANOSECONDS);
+				}
+
+				done.await();
+				took = System.nanoTime() - t0;
+				timer.shutdown();
+				pool.shutdown();
+			}
+
+			final List<Tape.Record> back = Tape.read(echo).records();
+			final long was = span(sent);
+			final long now = span(back);
+			final long wasBytes = sent.stream().mapToLong(Tape.Record::bytes).sum();
+			final long nowBytes = back.stream().mapToLong(Tape.Record::bytes).sum();
+			final long mismatched = sent.stream().filter(item -> seen.containsKey(item) && seen.get(item)[0] != item.status()).count();
+
+			System.err.println(String.format("REPLAY requests recorded=%d replayed=%d skipped=%d failed=%d mismatched=%d",
+				plan.size(), seen.size(), plan.size() - sent.size(), sent.size() - seen.size(), mismatched));
+			System.err.println(String.format("REPLAY connections recorded=%d reused=%d gapped=%d reconnects=%d",
+				wires.size(), sent.stream().filter(item -> item.seq() > 1).count(),
+				tapes.values().stream().filter(Replay::gapped).count(), reconnects.get()));
+			System.err.println(String.format("REPLAY span recorded=%.2fs replayed=%.2fs client=%.2fs speed=%s",
+				was / 1e6, now / 1e6, took / 1e9, speed > 0 ? speed + "x" : "max"));
+			System.err.println(String.format("REPLAY rate recorded=%.1freq/s replayed=%.1freq/s delta=%s",
+				sent.size() * 1e6 / was, back.size() * 1e6 / now, delta(sent.size() * 1e6 / was, back.size() * 1e6 / now)));
+			System.err.println(String.format("REPLAY throughput recorded=%.1fMB/s replayed=%.1fMB/s delta=%s bytes recorded=%d replayed=%d",
+				wasBytes / (double)was, nowBytes / (double)now, delta(wasBytes / (double)was, nowBytes / (double)now), wasBytes, nowBytes));
+
+			compare("server",
+				sent.stream().map(Tape.Record::micros).collect(Collectors.toList()),
+				back.stream().map(Tape.Record::micros).collect(Collectors.toList()));
+
+			final List<Long> client = seen.values().stream().map(item -> item[2] / 1000).sorted().collect(Collectors.toList());
+
+			System.err.println(String.format("REPLAY client p50=%.2fms p90=%.2fms p99=%.2fms pmax=%.2fms",
+				rank(client, .5), rank(client, .9), rank(client, .99), rank(client, 1)));
+		} finally {
+			Files.deleteIfExists(echo);
+
+			try (Stream<Path> list = Files.walk(home)) {
+				for (Path item : list.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(item);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,271 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import BFS.io.Delta;
+
+
+/**
+ * Fetches a file as a delta against a stale local copy and compares it with a full GET of the same file.
+ * <p>
+ * Usage: {@code java -cp <cp> BFS.Resync <url> <local> [runs] [block]}; the local copy is left untouched.
+ */
+public final class Resync {
+
+	private Resync() {
+	}
+
+
+	private static String line(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+
+		for (int c; (c = in.read()) != '\n'; ) {
+			if (c < 0) {
+				throw new EOFException();
+			} else if (c != '\r') {
+				out.write(c);
+			}
+		}
+
+		return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	private static Body exchange(Socket sock, URI url, String method, String query, byte[] body) throws IOException {
+		final int port = url.getPort() < 0 ? 80 : url.getPort();
+
+		sock.connect(new InetSocketAddress(url.getHost(), port), 5000);
+
+		final OutputStream out = sock.getOutputStream();
+		final InputStream in = new BufferedInputStream(sock.getInputStream(), 1 << 16);
+
+		out.write((method + " " + url.getRawPath() + (query == null ? "" : "?" + query) + " HTTP/1.1\r\n"
+			+ "Host: " + url.getHost() + ":" + port + "\r\n"
+			+ "Connection: close\r\n"
+			+ (body == null ? "" : "Content-Length: " + body.length + "\r\n")
+			+ "\r\n").getBytes(StandardCharsets.US_ASCII));
+
+		if (body != null) {
+			out.write(body);
+		}
+
+		out.flush();
+
+		final String status = line(in);
+		boolean chunked = false;
+		long length = Long.MAX_VALUE;
+
+		if (!status.contains(" 200 ")) {
+			throw new IOException(method + " " + url + ": " + status);
+		}
+
+		for (String field = line(in).toLowerCase(Locale.ROOT); !field.isEmpty(); field = line(in).toLowerCase(Locale.ROOT)) {
+			if (field.startsWith("transfer-encoding:")) {
+				chunked = field.contains("chunked");
+			} else if (field.startsWith("content-length:")) {
+				length = Long.parseLong(field.substring(15).trim());
+			}
+		}
+
+		return new Body(in, chunked, length);
+	}
+
+	private static byte[] digest(Delta delta, Path file, int block) throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			return delta.sign(in, block).digest();
+		}
+	}
+
+	private static void report(String label, List<Long> runs) {
+		Collections.sort(runs);
+
+		System.err.println(String.format("RESYNC %s min=%.1fms median=%.1fms max=%.1fms runs=%d",
+			label,
+			runs.get(0) / 1e6,
+			runs.get(runs.size() / 2) / 1e6,
+			runs.get(runs.size() - 1) / 1e6,
+			runs.size()));
+	}
+
+
+	public static void main(
+		String... args
+	) throws Exception {
+		final URI url = new URI(args[0]);
+		final Path local = Paths.get(args[1]);
+		final int count = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		final int block = args.length > 3 ? Integer.parseInt(args[3]) : 1 << 16;
+		final Path patched = Files.createTempFile("arachnid-", ".delta");
+		final Path fetched = Files.createTempFile("arachnid-", ".full");
+		final List<Long> signs = new ArrayList<>();
+		final List<Long> deltas = new ArrayList<>();
+		final List<Long> fulls = new ArrayList<>();
+		long up = 0;
+		long down = 0;
+		long full = 0;
+
+		try (Delta delta = Delta.open(1)) {
+			for (int i = 0; i < count; i++) {
+				final long t0 = System.nanoTime();
+				final byte[] sums;
+
+				try (FileChannel old = FileChannel.open(local, StandardOpenOption.READ)) {
+					sums = delta.sign(old, block).print().getBytes(StandardCharsets.US_ASCII);
+				}
+
+				final long t1 = System.nanoTime();
+
+				try (
+					Socket sock = new Socket();
+					FileChannel old = FileChannel.open(local, StandardOpenOption.READ);
+					FileChannel out = FileChannel.open(patched, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				) {
+					final Body body = exchange(sock, url, "POST", "delta", sums);
+
+					delta.apply(body, old, out);
+					up = sums.length;
+					down = body.count;
+				}
+
+				final long t2 = System.nanoTime();
+
+				try (Socket sock = new Socket()) {
+					final Body body = exchange(sock, url, "GET", null, null);
+
+					Files.copy(body, fetched, StandardCopyOption.REPLACE_EXISTING);
+					full = body.count;
+				}
+
+				final long t3 = System.nanoTime();
+
+				signs.add(t1 - t0);
+				deltas.add(t2 - t0);
+				fulls.add(t3 - t2);
+			}
+
+			if (!MessageDigest.isEqual(digest(delta, patched, block), digest(delta, fetched, block))) {
+				throw new IOException("The patched copy differs from the full fetch");
+			}
+		} finally {
+			Files.deleteIfExists(patched);
+			Files.deleteIfExists(fetched);
+		}
+
+		report("sign", signs);
+		report("delta", deltas);
+		report("full", fulls);
+
+		System.err.println(String.format("RESYNC bytes up=%d down=%d full=%d saved=%.1f%%",
+			up, down, full, 100.0 - (up + down) * 100.0 / Math.max(1, full)));
+	}
+
+
+	private static final class Body extends InputStream {
+
+		private final InputStream in;
+		private final boolean chunked;
+		private long left;
+		private boolean begun;
+		private boolean over;
+		private long count;
+
+
+		private Body(InputStream in, boolean chunked, long length) {
+			this.in = in;
+			this.chunked = chunked;
+			this.left = chunked ? 0 : length;
+		}
+
+
+		private boolean fill() throws IOException {
+			if (left == 0 && chunked && !over) {
+				if (begun) {
+					line(in);
+				}
+
+				final String size = line(in);
+
+				begun = true;
+				left = Long.parseLong((size.indexOf(';') < 0 ? size : size.substring(0, size.indexOf(';'))).trim(), 16);
+				over = left == 0;
+			}
+
+			return left > 0;
+		}
+
+
+		@Override
+		public int read() throws IOException {
+			final byte[] one = new byte[1];
+
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] into, int from, int size) throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+
+			final int step = in.read(into, from, (int)Math.min(size, left));
+
+			if (step < 0) {
+				if (chunked || left != Long.MAX_VALUE) {
+					throw new EOFException();
+				}
+
+				left = 0;
+				return -1;
+			}
+
+			left -= step;
+			count += step;
+
+			return step;
+		}
+
+	}
+
+}
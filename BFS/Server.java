@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * A server running inside the calling process, e.g. one of many started by a test suite.
+ * <p>
+ * Binds port 0 unless the config names a port; {@link #port()} tells the one actually bound.
+ * A null config means all defaults, not the .arachnid file.
+ * Without a root or goto it serves the working directory; it never opens the root picker.
+ * Embedded servers share their worker pools, sized by the config of the first one started.
+ */
+public final class Server implements AutoCloseable {
+
+	private static final long DRAIN = 5000;
+	private static final long LINGER = 60;
+
+	private static Engine.Crew crew;
+
+	private final Engine engine;
+	private final InetSocketAddress address;
+	private final Thread loop;
+	private Boolean drained;
+
+
+	private Server(Engine engine, InetSocketAddress address, Thread loop) {
+		this.engine = engine;
+		this.address = address;
+		this.loop = loop;
+	}
+
+
+	private static synchronized Engine.Crew crew(Properties config) {
+		if (crew == null) {
+			crew = new Engine.Crew(null, config, LINGER);
+		}
+
+		return crew;
+	}
+
+	public static Server start(Properties config) throws IOException {
+		return start(config, "channel");
+	}
+
+	public static Server start(Properties config, String wire) throws IOException {
+		final Properties copy = config == null ? new Properties() : Engine.copy(config);
+
+		copy.putIfAbsent("port", "0");
+
+		final Engine engine = Engine.open(copy, wire, crew(copy));
+		final AtomicReference<IOException> fault = new AtomicReference<>();
+		final Thread loop = engine.newThread(() -> {
+			try {
+				engine.serve();
+			} catch (IOException e) {
+				fault.set(e);
+			}
+		});
+
+		loop.start();
+
+		try {
+			final InetSocketAddress address = (InetSocketAddress)engine.await();
+
+			if (address != null) {
+				return new Server(engine, address, loop);
+			}
+
+			loop.join();
+		} catch (InterruptedException e) {
+			engine.drain(0);
+			engine.close();
+			throw new InterruptedIOException("Interrupted while binding");
+		}
+
+		engine.close();
+		throw fault.get() != null ? fault.get() : new IOException("No listener bound");
+	}
+
+
+	public int port() {
+		return address.getPort();
+	}
+
+	public InetSocketAddress address() {
+		return address;
+	}
+
+	/**
+	 * Stops accepting, lets responses in flight finish and closes idle connections;
+	 * whatever still runs after 'millis' is cut off. Tells whether everything finished in time.
+	 */
+	public synchronized boolean stop(long millis) {
+		if (drained == null) {
+			drained = engine.drain(millis);
+
+			try {
+				loop.join(TimeUnit.SECONDS.toMillis(1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			engine.close();
+		}
+
+		return drained;
+	}
+
+	@Override
+	public void close() {
+		stop(DRAIN);
+	}
+
+}
@@ -0,0 +1,208 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the time to first byte of a freshly started server, with and without an AppCDS archive.
+ * <p>
+ * Usage: {@code java -cp <cp> BFS.Startup [server-class] [runs] [archive]}; a missing archive is trained first.
+ */
+public final class Startup {
+
+	private static final String PROBE = "probe.txt";
+
+
+	private Startup() {
+	}
+
+
+	private static int free() throws IOException {
+		try (ServerSocket tmp = new ServerSocket(0)) {
+			return tmp.getLocalPort();
+		}
+	}
+
+	private static Process spawn(Path home, List<String> flags, String... main) throws IOException {
+		final List<String> cmd = new ArrayList<>();
+
+		cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		cmd.add("-Djava.awt.headless=true");
+		cmd.addAll(flags);
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.addAll(Arrays.asList(main));
+
+		return new ProcessBuilder(cmd)
+			.directory(home.toFile())
+			.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+			.redirectError(ProcessBuilder.Redirect.DISCARD)
+			.start();
+	}
+
+	private static boolean fetch(int port, String target) throws IOException {
+		try (Socket probe = new Socket()) {
+			probe.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+
+			final OutputStream out = probe.getOutputStream();
+			final InputStream in = probe.getInputStream();
+
+			out.write(("GET /" + target + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+
+			return in.read() >= 0;
+		}
+	}
+
+	private static long first(Process proc, int port) throws IOException, InterruptedException {
+		final long t0 = System.nanoTime();
+		final long stop = t0 + TimeUnit.SECONDS.toNanos(20);
+
+		while (System.nanoTime() < stop && (proc == null || proc.isAlive())) {
+			try {
+				if (fetch(port, PROBE)) {
+					return System.nanoTime() - t0;
+				}
+			} catch (ConnectException e) {
+				Thread.sleep(1);
+			}
+		}
+
+		throw new IOException("Server did not answer");
+	}
+
+	private static long launch(Path home, int port, String server, String... flags) throws IOException, InterruptedException {
+		final long t0 = System.nanoTime();
+		final Process proc = spawn(home, Arrays.asList(flags), server);
+
+		try {
+			first(proc, port);
+
+			return System.nanoTime() - t0;
+		} finally {
+			proc.destroy();
+			proc.waitFor();
+		}
+	}
+
+	private static void train(Path home, int port, String server, Path archive) throws IOException, InterruptedException {
+		for (String item : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if (Files.isDirectory(Paths.get(item))) {
+				throw new IOException("AppCDS only archives classes loaded from jars, not from " + item);
+			}
+		}
+
+		final Process proc = spawn(home, Arrays.asList("-XX:ArchiveClassesAtExit=" + archive), Startup.class.getName(), "train", server, String.valueOf(port));
+
+		if (proc.waitFor() != 0 || !Files.exists(archive)) {
+			throw new IOException("No archive was written to " + archive);
+		}
+	}
+
+	private static void train(String server, int port) throws Exception {
+		final Thread svc = new Thread(() -> {
+			try {
+				Class.forName(server).getMethod("main", String[].class).invoke(null, (Object)new String[0]);
+			} catch (ReflectiveOperationException e) {
+				e.printStackTrace();
+			}
+		});
+
+		svc.setDaemon(true);
+		svc.start();
+
+		first(null, port);
+
+		for (String target : new String[] { PROBE, "", "missing", "?archive=tar", "%2e%2e/x" }) {
+			fetch(port, target);
+		}
+
+		System.exit(0);
+	}
+
+	private static void report(String label, List<Long> runs) {
+		Collections.sort(runs);
+
+		System.err.println(String.format("STARTUP %s min=%.1fms median=%.1fms max=%.1fms runs=%d",
+			label,
+			runs.get(0) / 1e6,
+			runs.get(runs.size() / 2) / 1e6,
+			runs.get(runs.size() - 1) / 1e6,
+			runs.size()));
+	}
+
+
+	public static void main(
+		String... args
+	) throws Exception {
+		if (args.length > 2 && args[0].equals("train")) {
+			train(args[1], Integer.parseInt(args[2]));
+		}
+
+		final String server = args.length > 0 ? args[0] : BasicFileServerNIO.class.getName();
+		final int count = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		final Path archive = Paths.get(args.length > 2 ? args[2] : "arachnid.jsa").toAbsolutePath();
+		final Path home = Files.createTempDirectory("arachnid-");
+		final int port = free();
+
+		Files.write(home.resolve(PROBE), "probe".getBytes(StandardCharsets.US_ASCII));
+		Files.write(home.resolve(".arachnid"), String.join("\n",
+			"port=" + port,
+			"root=" + home.toAbsolutePath().toString().replace(File.separatorChar, '/')).getBytes(StandardCharsets.ISO_8859_1));
+
+		if (!Files.exists(archive)) {
+			train(home, port, server, archive);
+		}
+
+		final List<Long> plain = new ArrayList<>();
+		final List<Long> shared = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			plain.add(launch(home, port, server));
+			shared.add(launch(home, port, server, "-XX:SharedArchiveFile=" + archive));
+		}
+
+		report("default", plain);
+		report("appcds", shared);
+	}
+
+}
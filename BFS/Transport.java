@@ -0,0 +1,493 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import BFS.net.Conduit;
+
+
+/**
+ * Accepts connections and feeds them to the shared request pipeline of an {@link Engine}.
+ * <p>
+ * Picked by the 'wire' key: 'stream', 'channel', 'selector', 'virtual', or the name of a class implementing it;
+ * the 'sock' key adds a {@link Local} listener beside it.
+ */
+public interface Transport {
+
+	void serve(Engine engine) throws IOException;
+
+
+	public static Transport of(String name) {
+		switch (name) {
+			case "stream":
+				return new Stream();
+			case "channel":
+				return new Channel();
+			case "selector":
+				return new Select();
+			case "virtual":
+				return new Virtual();
+			default:
+				try {
+					return Class.forName(name).asSubclass(Transport.class).getDeclaredConstructor().newInstance();
+				} catch (ReflectiveOperationException|ClassCastException e) {
+					throw new IllegalArgumentException("Unknown transport: " + name, e);
+				}
+		}
+	}
+
+
+	public static abstract class Blocking implements Transport {
+
+		protected abstract ServerSocket open() throws IOException;
+
+		protected Executor runner() {
+			return null;
+		}
+
+		protected ServerSocket[] bind(Engine engine) throws IOException {
+			final ServerSocket[] tcp = new ServerSocket[engine.acceptors()];
+			int bound = 0;
+
+			try {
+				do {
+					final ServerSocket item = tcp[bound] = open();
+
+					engine.door(item);
+					final boolean fork = tcp.length > 1
+						&& item.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+
+					item.setReuseAddress(true);
+
+					if (fork) {
+						item.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+					}
+
+					if (engine.rcvbuf() > 0) {
+						item.setReceiveBufferSize(engine.rcvbuf());
+					}
+
+					item.bind(new InetSocketAddress(bound > 0 ? tcp[0].getLocalPort() : engine.port()), engine.backlog());
+
+					if (!fork) {
+						break;
+					}
+				} while (++bound < tcp.length);
+			} catch (IOException e) {
+				for (ServerSocket item : tcp) {
+					if (item != null) {
+						item.close();
+					}
+				}
+
+				throw e;
+			}
+
+			final ServerSocket[] live = Arrays.copyOf(tcp, Math.min(tcp.length, bound + 1));
+
+			engine.tally().gauge("accept.sockets", () -> live.length);
+
+			return live;
+		}
+
+		protected void accept(Engine engine, ServerSocket tcp, int id) throws IOException {
+			final LongAdder count = engine.tally().counter("accept." + id);
+
+			while (engine.admit(true)) {
+				final Socket client = tcp.accept();
+
+				count.increment();
+				engine.handle(Conduit.of(engine.tune(client)), runner());
+			}
+		}
+
+		@Override
+		public void serve(Engine engine) throws IOException {
+			final ServerSocket[] tcp = bind(engine);
+
+			try {
+				engine.bound(tcp[0].getChannel() != null ? tcp[0].getChannel() : tcp[0], tcp[0].getLocalSocketAddress());
+
+				for (int i = 1; i < engine.acceptors(); i++) {
+					final ServerSocket item = tcp[i % tcp.length];
+					final int id = i;
+
+					engine.newThread(() -> {
+						try {
+							accept(engine, item, id);
+						} catch (IOException e) {
+						}
+					}).start();
+				}
+
+				accept(engine, tcp[0], 0);
+			} finally {
+				for (ServerSocket item : tcp) {
+					item.close();
+				}
+			}
+		}
+
+	}
+
+	public static final class Stream extends Blocking {
+
+		@Override
+		protected ServerSocket open() throws IOException {
+			return new ServerSocket();
+		}
+
+	}
+
+	public static class Channel extends Blocking {
+
+		@Override
+		protected ServerSocket open() throws IOException {
+			return ServerSocketChannel.open().socket();
+		}
+
+	}
+
+	public static final class Virtual extends Channel {
+
+		private final Executor runner = threads();
+
+
+		private static Executor threads() {
+			try {
+				return (Executor)java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				System.err.println("Virtual threads are unavailable; using the worker pools");
+				return null;
+			}
+		}
+
+		@Override
+		protected Executor runner() {
+			return runner;
+		}
+
+	}
+
+	public static final class Select extends Channel {
+
+		@Override
+		public void serve(Engine engine) throws IOException {
+			final ServerSocket[] tcp = bind(engine);
+			final List<Loop> loops = new ArrayList<>();
+
+			try {
+				engine.bound(tcp[0].getChannel(), tcp[0].getLocalSocketAddress());
+
+				for (int i = 0; i < engine.acceptors(); i++) {
+					loops.add(new Loop(engine, tcp[i % tcp.length].getChannel(), i));
+				}
+
+				for (int i = 1; i < loops.size(); i++) {
+					engine.newThread(loops.get(i)).start();
+				}
+
+				loops.get(0).run();
+			} finally {
+				for (Loop item : loops) {
+					item.selector.close();
+				}
+
+				for (ServerSocket item : tcp) {
+					item.close();
+				}
+			}
+		}
+
+
+		private static final class Loop implements Runnable {
+
+			private final Engine engine;
+			private final ServerSocketChannel tcp;
+			private final Selector selector;
+			private final Queue<SelectionKey> back;
+			private final LongAdder count;
+			private final long idle;
+
+
+			private Loop(Engine engine, ServerSocketChannel tcp, int id) throws IOException {
+				this.engine = engine;
+				this.tcp = tcp;
+				this.selector = Selector.open();
+				this.back = new ConcurrentLinkedQueue<>();
+				this.count = engine.tally().counter("accept." + id);
+				this.idle = TimeUnit.MILLISECONDS.toNanos(engine.idle());
+
+				engine.door(selector);
+			}
+
+
+			private void park(SocketChannel client, Engine.Swim swim) throws IOException {
+				client.configureBlocking(false);
+				client.register(selector, SelectionKey.OP_READ, swim);
+				swim.parked = System.nanoTime();
+			}
+
+			private void resume(SelectionKey key) {
+				back.add(key);
+				selector.wakeup();
+			}
+
+			private void accept(SelectionKey door) throws IOException {
+				while (engine.admit(false)) {
+					final SocketChannel client = tcp.accept();
+
+					if (client == null) {
+						engine.release();
+						return;
+					}
+
+					count.increment();
+					engine.tune(client.socket());
+
+					try {
+						park(client, engine.open(Conduit.of(client.socket())));
+					} catch (IOException e) {
+						client.close();
+						engine.release();
+					}
+				}
+
+				door.interestOps(0);
+			}
+
+			private void wake(List<SelectionKey> ready) throws IOException {
+				selector.selectNow();
+
+				for (SelectionKey key : ready) {
+					final Engine.Swim swim = (Engine.Swim)key.attachment();
+
+					((SocketChannel)key.channel()).configureBlocking(true);
+					engine.dispatch(swim, () -> {
+						try {
+							if (swim.turn()) {
+								resume(key);
+							} else if (!swim.kept()) {
+								swim.close();
+							}
+						} finally {
+							engine.settle();
+
+							if (swim.held()) {
+								swim.carry(() -> resume(key));
+							}
+						}
+					}, null);
+				}
+			}
+
+			private void sweep(long now) {
+				for (SelectionKey key : selector.keys()) {
+					if (key.isValid() && key.attachment() instanceof Engine.Swim && now - ((Engine.Swim)key.attachment()).parked > idle) {
+						key.cancel();
+						((Engine.Swim)key.attachment()).close();
+						engine.tally().inc("conn.idle.closed");
+					}
+				}
+			}
+
+			@Override
+			public void run() {
+				final List<SelectionKey> ready = new ArrayList<>();
+				long swept = System.nanoTime();
+
+				try {
+					tcp.configureBlocking(false);
+
+					final SelectionKey door = tcp.register(selector, SelectionKey.OP_ACCEPT);
+
+					while (!Thread.currentThread().isInterrupted()) {
+						selector.select(door.interestOps() == 0 ? 50 : 1000);
+
+						for (SelectionKey key; (key = back.poll()) != null; ) {
+							try {
+								park((SocketChannel)key.channel(), (Engine.Swim)key.attachment());
+							} catch (IOException e) {
+								((Engine.Swim)key.attachment()).close();
+							}
+						}
+
+						for (SelectionKey key : selector.selectedKeys()) {
+							if (!key.isValid()) {
+								continue;
+							} else if (key.isAcceptable()) {
+								accept(door);
+							} else if (key.isReadable()) {
+								key.cancel();
+								ready.add(key);
+							}
+						}
+
+						selector.selectedKeys().clear();
+
+						if (!ready.isEmpty()) {
+							wake(ready);
+							ready.clear();
+						}
+
+						if (door.interestOps() == 0 && engine.available()) {
+							door.interestOps(SelectionKey.OP_ACCEPT);
+						}
+
+						if (System.nanoTime() - swept > TimeUnit.SECONDS.toNanos(1)) {
+							sweep(swept = System.nanoTime());
+						}
+					}
+				} catch (IOException|ClosedSelectorException e) {
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * Accepts same-host clients on a Unix domain socket, where the JVM offers them (Java 16 or later).
+	 */
+	public static final class Local implements Transport {
+
+		private static ProtocolFamily family() {
+			return StandardProtocolFamily.valueOf("UNIX");
+		}
+
+		public static SocketAddress address(Path path) throws IOException {
+			try {
+				return (SocketAddress)Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class).invoke(null, path);
+			} catch (ReflectiveOperationException|IllegalArgumentException e) {
+				throw new IOException("Unix domain sockets are unavailable", e);
+			}
+		}
+
+		public static SocketChannel connect(Path path) throws IOException {
+			final SocketAddress where = address(path);
+
+			try {
+				final SocketChannel client = (SocketChannel)SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, family());
+
+				client.connect(where);
+
+				return client;
+			} catch (ReflectiveOperationException e) {
+				throw new IOException("Unix domain sockets are unavailable", e);
+			}
+		}
+
+		private static boolean stale(Path path) {
+			try {
+				if (!Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+					return false;
+				}
+			} catch (IOException e) {
+				return false;
+			}
+
+			try {
+				connect(path).close();
+				return false;
+			} catch (IOException e) {
+				return true;
+			}
+		}
+
+		private static ServerSocketChannel bind(Path path, int backlog) throws IOException {
+			final SocketAddress where = address(path);
+
+			if (stale(path)) {
+				Files.delete(path);
+			}
+
+			try {
+				final ServerSocketChannel uds = (ServerSocketChannel)ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, family());
+
+				uds.bind(where, backlog);
+				path.toFile().deleteOnExit();
+
+				return uds;
+			} catch (ReflectiveOperationException e) {
+				throw new IOException("Unix domain sockets are unavailable", e);
+			}
+		}
+
+		@Override
+		public void serve(Engine engine) throws IOException {
+			final Path path = engine.local();
+			final LongAdder count = engine.tally().counter("accept.local");
+
+			final ServerSocketChannel uds = bind(path, engine.backlog());
+
+			try {
+				engine.door(uds);
+				engine.bound(uds, uds.getLocalAddress());
+
+				while (engine.admit(true)) {
+					final SocketChannel client = uds.accept();
+
+					count.increment();
+
+					try {
+						engine.handle(Conduit.of(engine.tune(client), engine.wheel()), null);
+					} catch (IOException e) {
+						client.close();
+						engine.release();
+					}
+				}
+			} finally {
+				uds.close();
+				Files.deleteIfExists(path);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,465 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+
+/**
+ * A zip or jar archive published as a read-only tree, indexed once from its central directory.
+ * <p>
+ * Replacing the archive swaps in a fresh {@link Volume}; requests still holding the old one finish on it.
+ */
+public final class Archive implements AutoCloseable {
+
+	public static final int STORED = 0;
+	public static final int DEFLATED = 8;
+
+	private static final int LOCAL = 0x04034b50;
+	private static final int CENTRAL = 0x02014b50;
+	private static final int END = 0x06054b50;
+	private static final int END64 = 0x06064b50;
+	private static final int LOCATOR = 0x07064b50;
+	private static final long MASK = 0xffffffffL;
+
+	private final Path file;
+	private final AtomicReference<Volume> current;
+
+
+	private Archive(Path file, Volume first) {
+		this.file = file;
+		this.current = new AtomicReference<>(first);
+	}
+
+
+	public static Archive open(Path file) throws IOException {
+		return new Archive(file, load(file));
+	}
+
+	public static boolean accepts(Path file) {
+		return Files.isRegularFile(file);
+	}
+
+
+	private static void read(FileChannel in, ByteBuffer into, long from) throws IOException {
+		for (long at = from; into.hasRemaining(); ) {
+			final int step = in.read(into, at);
+
+			if (step < 0) {
+				throw new EOFException();
+			}
+
+			at += step;
+		}
+	}
+
+	private static long time(int date, int time) {
+		try {
+			return LocalDateTime.of(
+				(date >> 9 & 0x7f) + 1980, date >> 5 & 0xf, date & 0x1f,
+				time >> 11 & 0x1f, time >> 5 & 0x3f, (time & 0x1f) * 2)
+				.atZone(ZoneId.systemDefault())
+				.toInstant()
+				.toEpochMilli();
+		} catch (DateTimeException e) {
+			return 0;
+		}
+	}
+
+	private static void add(Manifest.Node top, String name, Manifest.Node item, long time) {
+		final String[] parts = name.split("/");
+		Manifest.Node node = top;
+		int last = parts.length - 1;
+
+		while (last >= 0 && (parts[last].isEmpty() || parts[last].equals("."))) {
+			last--;
+		}
+
+		for (int i = 0; i < last; i++) {
+			if (parts[i].isEmpty() || parts[i].equals(".")) {
+				continue;
+			}
+
+			Manifest.Node next = node.child(parts[i]);
+
+			if (next == null || !next.isDirectory()) {
+				node.put(next = new Manifest.Node(parts[i], true, 0, time));
+			}
+
+			node = next;
+		}
+
+		if (last >= 0 && !parts[last].equals("..") && (item.isDirectory() ? node.child(parts[last]) == null : true)) {
+			node.put(item.isDirectory() ? new Manifest.Node(parts[last], true, 0, item.time()) : new Item(parts[last], (Item)item));
+		}
+	}
+
+	private static Volume load(Path file) throws IOException {
+		final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		final FileChannel chan = FileChannel.open(file, StandardOpenOption.READ);
+
+		try {
+			final long size = chan.size();
+			final ByteBuffer tail = ByteBuffer.allocate((int)Math.min(size, 22 + 0xffff)).order(ByteOrder.LITTLE_ENDIAN);
+			int end = -1;
+
+			read(chan, tail, size - tail.capacity());
+
+			for (int i = tail.capacity() - 22; i >= 0 && end < 0; i--) {
+				end = tail.getInt(i) == END ? i : -1;
+			}
+
+			if (end < 0) {
+				throw new ZipException("No central directory in " + file);
+			}
+
+			long count = tail.getShort(end + 10) & 0xffff;
+			long span = tail.getInt(end + 12) & MASK;
+			long from = tail.getInt(end + 16) & MASK;
+
+			if (end >= 20 && tail.getInt(end - 20) == LOCATOR) {
+				final ByteBuffer wide = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+
+				read(chan, wide, tail.getLong(end - 12));
+
+				if (wide.getInt(0) != END64) {
+					throw new ZipException("Corrupt zip64 end record in " + file);
+				}
+
+				count = wide.getLong(32);
+				span = wide.getLong(40);
+				from = wide.getLong(48);
+			}
+
+			final ByteBuffer cd = chan.map(FileChannel.MapMode.READ_ONLY, from, span).order(ByteOrder.LITTLE_ENDIAN);
+			final long stamp = attrs.lastModifiedTime().toMillis();
+			final Manifest.Node top = new Manifest.Node("", true, 0, stamp);
+			int files = 0;
+
+			for (int at = 0; count > 0; count--) {
+				if (cd.getInt(at) != CENTRAL) {
+					throw new ZipException("Corrupt central directory in " + file);
+				}
+
+				final int method = cd.getShort(at + 10) & 0xffff;
+				final long time = time(cd.getShort(at + 14) & 0xffff, cd.getShort(at + 12) & 0xffff);
+				final int crc = cd.getInt(at + 16);
+				final int names = cd.getShort(at + 28) & 0xffff;
+				final int extras = cd.getShort(at + 30) & 0xffff;
+				final int notes = cd.getShort(at + 32) & 0xffff;
+				final byte[] name = new byte[names];
+				long packed = cd.getInt(at + 20) & MASK;
+				long plain = cd.getInt(at + 24) & MASK;
+				long header = cd.getInt(at + 42) & MASK;
+
+				for (int x = at + 46 + names; x + 4 <= at + 46 + names + extras; x += 4 + (cd.getShort(x + 2) & 0xffff)) {
+					if ((cd.getShort(x) & 0xffff) == 1) {
+						int y = x + 4;
+
+						if (plain == MASK) {
+							plain = cd.getLong(y);
+							y += 8;
+						}
+
+						if (packed == MASK) {
+							packed = cd.getLong(y);
+							y += 8;
+						}
+
+						if (header == MASK) {
+							header = cd.getLong(y);
+						}
+					}
+				}
+
+				cd.position(at + 46);
+				cd.get(name);
+
+				final String path = new String(name, StandardCharsets.UTF_8);
+
+				if (path.endsWith("/")) {
+					add(top, path, new Manifest.Node("", true, 0, time), stamp);
+				} else {
+					add(top, path, new Item("", plain, time, header, packed, method, crc), stamp);
+					files++;
+				}
+
+				at += 46 + names + extras + notes;
+			}
+
+			return new Volume(chan, top, attrs, files);
+		} catch (IOException|RuntimeException e) {
+			chan.close();
+			throw e instanceof IOException ? (IOException)e : new ZipException("Unreadable archive " + file + ": " + e);
+		}
+	}
+
+	public static ByteBuffer prefix() {
+		return ByteBuffer.wrap(new byte[] { 0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, (byte)0xff });
+	}
+
+	public static ByteBuffer suffix(Item item) {
+		final ByteBuffer tail = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+		tail.putInt(item.crc).putInt((int)item.size()).flip();
+
+		return tail;
+	}
+
+
+	public Volume acquire() {
+		while (true) {
+			final Volume item = current.get();
+
+			if (item.retain()) {
+				return item;
+			}
+		}
+	}
+
+	public boolean refresh() throws IOException {
+		final Volume prior = current.get();
+		final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+
+		if (attrs.size() == prior.size
+			&& attrs.lastModifiedTime().toMillis() == prior.time
+			&& Objects.equals(attrs.fileKey(), prior.key)) {
+			return false;
+		}
+
+		final Volume next = load(file);
+
+		if (current.compareAndSet(prior, next)) {
+			prior.release();
+			return true;
+		}
+
+		next.release();
+
+		return false;
+	}
+
+	public int size() {
+		return current.get().files;
+	}
+
+
+	@Override
+	public void close() {
+		current.get().release();
+	}
+
+
+	public static final class Item extends Manifest.Node {
+
+		private final long header;
+		private final long packed;
+		private final int method;
+		private final int crc;
+		private volatile long data = -1;
+
+
+		private Item(String name, long size, long time, long header, long packed, int method, int crc) {
+			super(name, false, size, time);
+			this.header = header;
+			this.packed = packed;
+			this.method = method;
+			this.crc = crc;
+		}
+
+		private Item(String name, Item item) {
+			this(name, item.size(), item.time(), item.header, item.packed, item.method, item.crc);
+		}
+
+
+		public int method() {
+			return method;
+		}
+
+		public long packed() {
+			return packed;
+		}
+
+	}
+
+	/**
+	 * One generation of the archive: its open channel and index, released once the last request is done with it.
+	 */
+	public static final class Volume {
+
+		private final FileChannel channel;
+		private final Manifest.Node top;
+		private final long size;
+		private final long time;
+		private final Object key;
+		private final int files;
+		private final AtomicInteger refs;
+
+
+		private Volume(FileChannel channel, Manifest.Node top, BasicFileAttributes attrs, int files) {
+			this.channel = channel;
+			this.top = top;
+			this.size = attrs.size();
+			this.time = attrs.lastModifiedTime().toMillis();
+			this.key = attrs.fileKey();
+			this.files = files;
+			this.refs = new AtomicInteger(1);
+		}
+
+
+		private boolean retain() {
+			for (int count = refs.get(); count > 0; count = refs.get()) {
+				if (refs.compareAndSet(count, count + 1)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		public void release() {
+			if (refs.decrementAndGet() == 0) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		public Manifest.Node find(String path) {
+			Manifest.Node node = top;
+
+			for (String part : path.split("/")) {
+				if (node == null || !node.isDirectory()) {
+					return null;
+				} else if (!part.isEmpty() && !part.equals(".")) {
+					node = node.child(part);
+				}
+			}
+
+			return node;
+		}
+
+		public FileChannel channel() {
+			return channel;
+		}
+
+		public long data(Item item) throws IOException {
+			if (item.data < 0) {
+				final ByteBuffer head = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+
+				read(channel, head, item.header);
+
+				if (head.getInt(0) != LOCAL) {
+					throw new ZipException("No local header at " + item.header);
+				}
+
+				item.data = item.header + 30 + (head.getShort(26) & 0xffff) + (head.getShort(28) & 0xffff);
+			}
+
+			return item.data;
+		}
+
+		public ReadableByteChannel inflate(Item item) throws IOException {
+			final long start = data(item);
+
+			return new ReadableByteChannel() {
+
+				private final Inflater inflater = new Inflater(true);
+				private final byte[] raw = new byte[1 << 16];
+				private long at = start;
+				private long left = item.packed;
+				private boolean padded;
+				private boolean open = true;
+
+				@Override
+				public int read(ByteBuffer dst) throws IOException {
+					try {
+						while (!inflater.finished()) {
+							if (!inflater.needsInput()) {
+								final int count = inflater.inflate(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+
+								if (count > 0) {
+									dst.position(dst.position() + count);
+									return count;
+								} else if (inflater.needsDictionary()) {
+									throw new ZipException("Preset dictionaries are unsupported");
+								}
+							} else if (left > 0) {
+								final ByteBuffer into = ByteBuffer.wrap(raw, 0, (int)Math.min(raw.length, left));
+
+								Archive.read(channel, into, at);
+								at += into.position();
+								left -= into.position();
+								inflater.setInput(raw, 0, into.position());
+							} else if (!padded) {
+								padded = true;
+								inflater.setInput(new byte[1]);
+							} else {
+								throw new ZipException("Truncated entry");
+							}
+						}
+
+						return -1;
+					} catch (DataFormatException e) {
+						throw new ZipException(e.getMessage());
+					}
+				}
+
+				@Override
+				public boolean isOpen() {
+					return open;
+				}
+
+				@Override
+				public void close() {
+					open = false;
+					inflater.end();
+				}
+
+			};
+		}
+
+	}
+
+}
@@ -0,0 +1,651 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.io;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Block signatures of files, a weak rolling checksum plus an MD5 per block, and rsync-style patches against them.
+ * <p>
+ * A patch copies the blocks a client already holds, wherever they moved to, and carries the rest as literals.
+ */
+public final class Delta implements AutoCloseable {
+
+	public static final int MIN = 1 << 9;
+	public static final int MAX = 1 << 20;
+
+	private static final int MAGIC = 0x41524450;
+	private static final int STRONG = 16;
+	private static final int SEGMENT = 1 << 22;
+	private static final int FRAME = 1 << 16;
+	private static final int COPY = 'C';
+	private static final int DATA = 'D';
+	private static final int DONE = 'E';
+
+	private final ForkJoinPool pool;
+	private final int limit;
+	private final Map<String, Sums> cache;
+	private final LongAdder hits;
+	private final LongAdder built;
+
+
+	private Delta(int limit) {
+		this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		this.limit = Math.max(1, limit);
+		this.cache = new ConcurrentHashMap<>();
+		this.hits = new LongAdder();
+		this.built = new LongAdder();
+	}
+
+
+	public static Delta open(int limit) {
+		return new Delta(limit);
+	}
+
+
+	private static MessageDigest md5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int weak(byte[] data, int from, int size) {
+		int a = 0;
+		int b = 0;
+
+		for (int i = from; i < from + size; i++) {
+			a += data[i] & 0xff;
+			b += a;
+		}
+
+		return a & 0xffff | b << 16;
+	}
+
+	private static boolean same(byte[] one, int at, byte[] two, int to) {
+		for (int i = 0; i < STRONG; i++) {
+			if (one[at + i] != two[to + i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static void read(FileChannel in, ByteBuffer into, long from) throws IOException {
+		for (long at = from; into.hasRemaining(); ) {
+			final int step = in.read(into, at);
+
+			if (step < 0) {
+				throw new EOFException();
+			}
+
+			at += step;
+		}
+	}
+
+	private static int hex(char c) {
+		final int value = Character.digit(c, 16);
+
+		if (value < 0) {
+			throw new NumberFormatException(String.valueOf(c));
+		}
+
+		return value;
+	}
+
+	/**
+	 * Reads a signature line by line from a body of the given size, or returns null if it is malformed.
+	 */
+	public static Sums parse(BufferedReader text, long bytes) throws IOException {
+		try {
+			final String[] head = String.valueOf(text.readLine()).split("\t");
+			final int block = Integer.parseInt(head[0].trim());
+			final long length = Long.parseLong(head[1].trim());
+			final long count = length == 0 ? 0 : (length - 1) / Math.max(1, block) + 1;
+
+			if (block < MIN || block > MAX || length < 0 || count > bytes / (STRONG * 2 + 3)) {
+				return null;
+			}
+
+			final int[] weak = new int[(int)count];
+			final byte[] strong = new byte[(int)count * STRONG];
+
+			for (int i = 0; i < count; i++) {
+				final String[] line = String.valueOf(text.readLine()).split("\t");
+
+				if (line.length != 2 || line[1].length() != STRONG * 2) {
+					return null;
+				}
+
+				weak[i] = Integer.parseUnsignedInt(line[0].trim(), 16);
+
+				for (int j = 0; j < STRONG; j++) {
+					strong[i * STRONG + j] = (byte)(hex(line[1].charAt(j * 2)) << 4 | hex(line[1].charAt(j * 2 + 1)));
+				}
+			}
+
+			return new Sums(block, length, 0, weak, strong);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	public static long diff(FileChannel in, Sums mine, Sums theirs, WritableByteChannel out) throws IOException {
+		if (mine.block != theirs.block) {
+			throw new IllegalArgumentException("Block sizes differ");
+		}
+
+		return new Scan(in, mine, theirs, out).run();
+	}
+
+
+	public Sums sums(Path path, int block) throws IOException {
+		final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		final String key = block + ":" + path;
+		final Sums hit = cache.get(key);
+
+		if (hit != null && hit.length == attrs.size() && hit.time == attrs.lastModifiedTime().toMillis()) {
+			hits.increment();
+			return hit;
+		}
+
+		final Sums made;
+
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			made = sign(in, attrs.size(), attrs.lastModifiedTime().toMillis(), block);
+		}
+
+		if (attrs.lastModifiedTime().equals(Files.getLastModifiedTime(path))) {
+			if (cache.size() >= limit) {
+				final Iterator<String> evict = cache.keySet().iterator();
+
+				if (evict.hasNext()) {
+					evict.next();
+					evict.remove();
+				}
+			}
+
+			cache.put(key, made);
+		}
+
+		return made;
+	}
+
+	public Sums sign(FileChannel in, int block) throws IOException {
+		return sign(in, in.size(), 0, block);
+	}
+
+	private Sums sign(FileChannel in, long length, long time, int block) throws IOException {
+		final long count = length == 0 ? 0 : (length - 1) / block + 1;
+
+		if (block < MIN || block > MAX || count > Integer.MAX_VALUE / STRONG) {
+			throw new IllegalArgumentException("Block size " + block + " does not fit " + length + " bytes");
+		}
+
+		final Sums sums = new Sums(block, length, time, new int[(int)count], new byte[(int)count * STRONG]);
+
+		try {
+			pool.invoke(new Hash(in, sums, 0, (int)count));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		built.increment();
+
+		return sums;
+	}
+
+	public long apply(InputStream patch, FileChannel old, FileChannel out) throws IOException {
+		final DataInputStream in = new DataInputStream(patch);
+
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a patch");
+		}
+
+		final int block = in.readInt();
+		final long length = in.readLong();
+		final byte[] data = new byte[FRAME];
+		final byte[] digest = new byte[STRONG];
+		long done = 0;
+
+		for (int op; (op = in.read()) != DONE; ) {
+			if (op == COPY) {
+				final long from = (long)in.readInt() * block;
+				final long size = Math.min(from + (long)in.readInt() * block, old.size()) - from;
+
+				if (from < 0 || size <= 0) {
+					throw new IOException("Patch copies past the old file");
+				}
+
+				for (long step = 0; step < size; ) {
+					out.position(done + step);
+					step += old.transferTo(from + step, size - step, out);
+				}
+
+				done += size;
+			} else if (op == DATA) {
+				final int size = in.readInt();
+
+				if (size < 0 || size > data.length) {
+					throw new IOException("Malformed patch");
+				}
+
+				in.readFully(data, 0, size);
+
+				for (ByteBuffer bytes = ByteBuffer.wrap(data, 0, size); bytes.hasRemaining(); ) {
+					out.write(bytes, done + size - bytes.remaining());
+				}
+
+				done += size;
+			} else {
+				throw new IOException("Malformed patch");
+			}
+		}
+
+		in.readFully(digest);
+		out.truncate(done);
+
+		if (done != length || !MessageDigest.isEqual(digest, sign(out, block).digest())) {
+			throw new IOException("Patched file does not match");
+		}
+
+		return done;
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long built() {
+		return built.sum();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+
+	public static final class Sums {
+
+		private final int block;
+		private final long length;
+		private final long time;
+		private final int[] weak;
+		private final byte[] strong;
+
+
+		private Sums(int block, long length, long time, int[] weak, byte[] strong) {
+			this.block = block;
+			this.length = length;
+			this.time = time;
+			this.weak = weak;
+			this.strong = strong;
+		}
+
+
+		private static void hex(StringBuilder out, int value, int digits) {
+			for (int i = digits - 1; i >= 0; i--) {
+				out.append(Character.forDigit(value >>> i * 4 & 0xf, 16));
+			}
+		}
+
+		private int size(int index) {
+			return (int)Math.min(block, length - (long)index * block);
+		}
+
+
+		public int block() {
+			return block;
+		}
+
+		public long length() {
+			return length;
+		}
+
+		public int count() {
+			return weak.length;
+		}
+
+		public byte[] digest() {
+			return md5().digest(strong);
+		}
+
+		public String print() {
+			final StringBuilder out = new StringBuilder(24 + weak.length * (STRONG * 2 + 11));
+
+			out.append(block).append('\t').append(length).append("\r\n");
+
+			for (int i = 0; i < weak.length; i++) {
+				hex(out, weak[i], 8);
+				out.append('\t');
+
+				for (int j = 0; j < STRONG; j++) {
+					hex(out, strong[i * STRONG + j], 2);
+				}
+
+				out.append("\r\n");
+			}
+
+			return out.toString();
+		}
+
+	}
+
+	private static final class Hash extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel in;
+		private final Sums sums;
+		private final int from;
+		private final int to;
+
+
+		private Hash(FileChannel in, Sums sums, int from, int to) {
+			this.in = in;
+			this.sums = sums;
+			this.from = from;
+			this.to = to;
+		}
+
+
+		@Override
+		protected void compute() {
+			final int span = Math.max(1, SEGMENT / sums.block);
+
+			if (to - from > span) {
+				final int mid = from + (to - from) / 2;
+
+				invokeAll(new Hash(in, sums, from, mid), new Hash(in, sums, mid, to));
+				return;
+			}
+
+			final long base = (long)from * sums.block;
+			final byte[] data = new byte[(int)Math.min((long)(to - from) * sums.block, sums.length - base)];
+			final MessageDigest md5 = md5();
+
+			try {
+				read(in, ByteBuffer.wrap(data), base);
+
+				for (int i = from, at = 0; i < to; at += sums.size(i++)) {
+					sums.weak[i] = weak(data, at, sums.size(i));
+					md5.update(data, at, sums.size(i));
+					md5.digest(sums.strong, i * STRONG, STRONG);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (DigestException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+	}
+
+	private static final class Scan {
+
+		private final FileChannel in;
+		private final Sums mine;
+		private final Sums theirs;
+		private final WritableByteChannel out;
+		private final int[] heads;
+		private final int[] links;
+		private final int mask;
+		private final ByteBuffer frame;
+		private final byte[] window;
+		private final byte[] probe;
+		private final MessageDigest md5;
+
+		private long base;
+		private int filled;
+		private int run = -1;
+		private int runs;
+		private long literal;
+
+
+		private Scan(FileChannel in, Sums mine, Sums theirs, WritableByteChannel out) {
+			this.in = in;
+			this.mine = mine;
+			this.theirs = theirs;
+			this.out = out;
+			this.heads = new int[Integer.highestOneBit(Math.max(1, theirs.count()) * 2 - 1) * 2];
+			this.links = new int[theirs.count()];
+			this.mask = heads.length - 1;
+			this.frame = ByteBuffer.allocate(FRAME);
+			this.window = new byte[Math.max(FRAME * 16, theirs.block * 4)];
+			this.probe = new byte[STRONG];
+			this.md5 = md5();
+
+			Arrays.fill(heads, -1);
+
+			for (int i = theirs.count() - 1; i >= 0; i--) {
+				links[i] = heads[slot(theirs.weak[i])];
+				heads[slot(theirs.weak[i])] = i;
+			}
+		}
+
+
+		private int slot(int weak) {
+			final int mix = weak * 0x9e3779b9;
+
+			return (mix ^ mix >>> 16) & mask;
+		}
+
+		private int at(long pos) {
+			return window[(int)(pos - base)] & 0xff;
+		}
+
+		private void ensure(long pos, int size) throws IOException {
+			if (pos < base || pos + size > base + filled) {
+				final ByteBuffer into = ByteBuffer.wrap(window, 0, (int)Math.min(window.length, mine.length - pos));
+
+				base = pos;
+				filled = 0;
+				read(in, into, pos);
+				filled = into.position();
+			}
+		}
+
+		private void room(int size) throws IOException {
+			if (frame.remaining() < size) {
+				drain();
+			}
+		}
+
+		private void drain() throws IOException {
+			frame.flip();
+
+			while (frame.hasRemaining()) {
+				out.write(frame);
+			}
+
+			frame.clear();
+		}
+
+		private void flush() throws IOException {
+			if (run >= 0) {
+				room(9);
+				frame.put((byte)COPY).putInt(run).putInt(runs);
+				run = -1;
+			}
+		}
+
+		private void copy(int index) throws IOException {
+			if (run >= 0 && run + runs == index) {
+				runs++;
+			} else {
+				flush();
+				run = index;
+				runs = 1;
+			}
+		}
+
+		private void data(long from, long size) throws IOException {
+			if (size > 0) {
+				flush();
+				literal += size;
+			}
+
+			for (long done = 0; done < size; ) {
+				room(6);
+
+				final int step = (int)Math.min(size - done, frame.remaining() - 5);
+				final int limit = frame.limit();
+
+				frame.put((byte)DATA).putInt(step);
+				frame.limit(frame.position() + step);
+				read(in, frame, from + done);
+				frame.limit(limit);
+				done += step;
+			}
+		}
+
+		private int find(int weak, long pos, int size) throws IOException, DigestException {
+			boolean hashed = false;
+
+			for (int i = heads[slot(weak)]; i >= 0; i = links[i]) {
+				if (theirs.weak[i] != weak || theirs.size(i) != size) {
+					continue;
+				} else if (!hashed && pos % mine.block == 0) {
+					System.arraycopy(mine.strong, (int)(pos / mine.block) * STRONG, probe, 0, STRONG);
+					hashed = true;
+				} else if (!hashed) {
+					ensure(pos, size);
+					md5.update(window, (int)(pos - base), size);
+					md5.digest(probe, 0, STRONG);
+					hashed = true;
+				}
+
+				if (same(theirs.strong, i * STRONG, probe, 0)) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
+		private long run() throws IOException {
+			final int block = mine.block;
+			final long length = mine.length;
+			boolean rolling = false;
+			long lit = 0;
+			int a = 0;
+			int b = 0;
+
+			frame.putInt(MAGIC).putInt(block).putLong(length);
+
+			try {
+				for (long pos = 0; pos < length; ) {
+					final int size = (int)Math.min(block, length - pos);
+
+					if (!rolling) {
+						int weak;
+
+						if (pos % block == 0) {
+							weak = mine.weak[(int)(pos / block)];
+						} else {
+							ensure(pos, size);
+							weak = weak(window, (int)(pos - base), size);
+						}
+
+						a = weak & 0xffff;
+						b = weak >>> 16;
+						rolling = true;
+					}
+
+					final int hit = find(a & 0xffff | b << 16, pos, size);
+
+					if (hit >= 0) {
+						data(lit, pos - lit);
+						copy(hit);
+						pos += size;
+						lit = pos;
+						rolling = false;
+						continue;
+					}
+
+					ensure(pos, pos + size < length ? size + 1 : 1);
+
+					final int x = at(pos);
+
+					if (pos + size < length) {
+						a += at(pos + size) - x;
+						b += a - size * x;
+					} else {
+						a -= x;
+						b -= size * x;
+					}
+
+					if (++pos - lit >= FRAME) {
+						data(lit, pos - lit);
+						lit = pos;
+					}
+				}
+
+				data(lit, length - lit);
+			} catch (DigestException e) {
+				throw new IllegalStateException(e);
+			}
+
+			flush();
+			room(1 + STRONG);
+			frame.put((byte)DONE).put(mine.digest());
+			drain();
+
+			return literal;
+		}
+
+	}
+
+}
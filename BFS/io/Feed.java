@@ -0,0 +1,289 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.io;
+
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Numbers the changes seen by the shared watch into a replay ring
+ * that stream subscribers are pushed from and waiting long-polls are completed from.
+ */
+public final class Feed {
+
+	private static final long BEAT = TimeUnit.SECONDS.toNanos(15);
+
+	private final Path root;
+	private final Set<Sub> subs;
+	private final Executor push;
+	private final Event[] ring;
+	private final long start;
+
+	private long next;
+
+
+	private Feed(Path root, int size, Watch watch, Executor push) {
+		this.root = root.toAbsolutePath().normalize();
+		this.subs = ConcurrentHashMap.newKeySet();
+		this.push = push;
+		this.ring = new Event[Integer.highestOneBit(Math.max(2, size))];
+		this.start = this.next = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+		watch.listen(this::changed);
+	}
+
+
+	public static Feed open(Path root, int size, Watch watch, Executor push) {
+		return new Feed(root, size, watch, push);
+	}
+
+	private static String name(Path root, Path item) {
+		return root.relativize(item).toString().replace(item.getFileSystem().getSeparator(), "/");
+	}
+
+	private static boolean under(String path, String prefix) {
+		return prefix.isEmpty() || path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/');
+	}
+
+
+	private void changed(Path dir, List<WatchEvent<?>> events) {
+		final List<Event> batch = new ArrayList<>();
+
+		for (WatchEvent<?> event : events) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				batch.add(append("overflow", name(root, dir)));
+				continue;
+			}
+
+			final String kind = event.kind() == StandardWatchEventKinds.ENTRY_CREATE ? "create"
+				: event.kind() == StandardWatchEventKinds.ENTRY_DELETE ? "delete"
+				: "modify";
+
+			batch.add(append(kind, name(root, dir.resolve((Path)event.context()))));
+		}
+
+		for (Sub sub : subs) {
+			for (Event item : batch) {
+				if (under(item.path, sub.prefix)) {
+					schedule(sub);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends a heartbeat to every stream that has been quiet for a while; meant to run about once a second.
+	 */
+	public void beat() {
+		final long now = System.nanoTime();
+
+		for (Sub sub : subs) {
+			if (!sub.once && now - sub.wrote >= BEAT) {
+				schedule(sub);
+			}
+		}
+	}
+
+	private synchronized Event append(String kind, String path) {
+		final Event item = new Event(next++, kind, path);
+
+		ring[(int)(item.seq & ring.length - 1)] = item;
+
+		return item;
+	}
+
+	private void schedule(Sub sub) {
+		if (sub.queued.compareAndSet(false, true)) {
+			push.execute(() -> drain(sub));
+		}
+	}
+
+	private void drain(Sub sub) {
+		synchronized (sub) {
+			sub.queued.set(false);
+
+			final Page page = since(sub.cursor, sub.prefix);
+
+			sub.cursor = page.cursor;
+
+			if (sub.once && page.events.isEmpty() && !page.reset) {
+				return;
+			} else if (sub.once) {
+				subs.remove(sub);
+			}
+
+			sub.wrote = System.nanoTime();
+
+			if (!sub.listener.accept(page)) {
+				subs.remove(sub);
+			}
+		}
+	}
+
+
+	public synchronized long cursor() {
+		return next - 1;
+	}
+
+	public synchronized Page since(long cursor, String prefix) {
+		final List<Event> list = new ArrayList<>();
+
+		if (cursor > next - 1 || cursor < Math.max(start, next - ring.length) - 1) {
+			return new Page(list, next - 1, true);
+		}
+
+		for (long seq = cursor + 1; seq < next; seq++) {
+			final Event item = ring[(int)(seq & ring.length - 1)];
+
+			if (under(item.path, prefix)) {
+				list.add(item);
+			}
+		}
+
+		return new Page(list, next - 1, false);
+	}
+
+	public void subscribe(String prefix, long cursor, Listener listener) {
+		final Sub sub = new Sub(prefix, cursor, listener, false);
+
+		subs.add(sub);
+		schedule(sub);
+	}
+
+	/**
+	 * Hands the listener the first page holding changes below the prefix, once; the returned task gives up waiting.
+	 */
+	public Runnable expect(String prefix, long cursor, Listener listener) {
+		final Sub sub = new Sub(prefix, cursor, listener, true);
+
+		subs.add(sub);
+		schedule(sub);
+
+		return () -> subs.remove(sub);
+	}
+
+	public int subscribers() {
+		return subs.size();
+	}
+
+
+
+	public interface Listener {
+
+		/**
+		 * Takes the next page of events (empty for a heartbeat); returns false once the subscriber is gone.
+		 */
+		boolean accept(Page page);
+
+	}
+
+	public static final class Page {
+
+		private final List<Event> events;
+		private final long cursor;
+		private final boolean reset;
+
+
+		private Page(List<Event> events, long cursor, boolean reset) {
+			this.events = events;
+			this.cursor = cursor;
+			this.reset = reset;
+		}
+
+
+		public List<Event> events() {
+			return events;
+		}
+
+		public long cursor() {
+			return cursor;
+		}
+
+		public boolean reset() {
+			return reset;
+		}
+
+	}
+
+	public static final class Event {
+
+		private final long seq;
+		private final String kind;
+		private final String path;
+
+
+		private Event(long seq, String kind, String path) {
+			this.seq = seq;
+			this.kind = kind;
+			this.path = path;
+		}
+
+
+		public long seq() {
+			return seq;
+		}
+
+		public String kind() {
+			return kind;
+		}
+
+		public String path() {
+			return path;
+		}
+
+	}
+
+	private static final class Sub {
+
+		private final String prefix;
+		private final Listener listener;
+		private final AtomicBoolean queued;
+		private final boolean once;
+
+		private volatile long cursor;
+		private volatile long wrote;
+
+
+		private Sub(String prefix, long cursor, Listener listener, boolean once) {
+			this.prefix = prefix;
+			this.cursor = cursor;
+			this.listener = listener;
+			this.queued = new AtomicBoolean();
+			this.once = once;
+			this.wrote = System.nanoTime();
+		}
+
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * A count-min sketch of request paths feeding a persistent top-K list of the hottest ones.
+ */
+public final class Heat {
+
+	private static final int MAGIC = 0x41524854;
+	private static final int VERSION = 1;
+	private static final int DEPTH = 4;
+	private static final int WIDTH = 1 << 12;
+
+	private final Path file;
+	private final int limit;
+	private final AtomicIntegerArray cells;
+	private final Map<String, Integer> top;
+	private final List<String> prior;
+
+	private volatile int floor;
+
+
+	private Heat(Path file, int limit, List<String> prior) {
+		this.file = file;
+		this.limit = Math.max(1, limit);
+		this.cells = new AtomicIntegerArray(DEPTH * WIDTH);
+		this.top = new ConcurrentHashMap<>();
+		this.prior = prior;
+	}
+
+
+	/**
+	 * Loads the saved list; a truncated or garbled file, e.g. cut short by a crash, is logged and overwritten with an empty one.
+	 */
+	public static Heat open(Path file, int limit) {
+		final List<String> prior = new ArrayList<>();
+		final Heat heat = new Heat(file, limit, prior);
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+				for (int i = in.readInt(); i > 0; i--) {
+					final int count = in.readInt();
+					final String path = in.readUTF();
+
+					if (count < 0) {
+						throw new IOException("Negative count for " + path);
+					}
+
+					prior.add(path);
+					heat.seed(path, count);
+				}
+			}
+		} catch (NoSuchFileException e) {
+		} catch (IOException e) {
+			System.err.println("Discarded " + file + ": " + e);
+
+			final Heat fresh = new Heat(file, limit, new ArrayList<>());
+
+			try {
+				fresh.save();
+			} catch (IOException f) {
+				System.err.println("No rewrite of " + file + ": " + f);
+			}
+
+			return fresh;
+		}
+
+		return heat;
+	}
+
+	private static int hash(String key, int row) {
+		int h = key.hashCode() * 0x9e3779b9 + row * 0x85ebca6b;
+
+		h ^= h >>> 16;
+		h *= 0x7feb352d;
+		h ^= h >>> 15;
+
+		return row * WIDTH + (h & WIDTH - 1);
+	}
+
+
+	private void seed(String path, int count) {
+		for (int row = 0; row < DEPTH; row++) {
+			cells.addAndGet(hash(path, row), count);
+		}
+
+		top.put(path, count);
+	}
+
+	public void record(String path) {
+		if (path.length() > 4096) {
+			return;
+		}
+
+		int least = Integer.MAX_VALUE;
+
+		for (int row = 0; row < DEPTH; row++) {
+			least = Math.min(least, cells.incrementAndGet(hash(path, row)));
+		}
+
+		if (top.containsKey(path)) {
+			top.put(path, least);
+		} else if (least > floor || top.size() < limit) {
+			admit(path, least);
+		}
+	}
+
+	private synchronized void admit(String path, int count) {
+		top.put(path, count);
+
+		if (top.size() > limit) {
+			String coldest = null;
+			int low = Integer.MAX_VALUE;
+
+			for (Entry<String, Integer> item : top.entrySet()) {
+				if (item.getValue() < low) {
+					coldest = item.getKey();
+					low = item.getValue();
+				}
+			}
+
+			top.remove(coldest);
+			floor = low;
+		}
+	}
+
+	public synchronized void decay() {
+		for (int i = 0; i < cells.length(); i++) {
+			cells.set(i, cells.get(i) >> 1);
+		}
+
+		top.replaceAll((path, count) -> count >> 1);
+		top.values().removeIf(count -> count == 0);
+		floor >>= 1;
+	}
+
+	public List<String> prior() {
+		return prior;
+	}
+
+	public int size() {
+		return top.size();
+	}
+
+	public void save() throws IOException {
+		final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		final List<Entry<String, Integer>> list = new ArrayList<>(top.entrySet());
+
+		list.sort(Entry.<String, Integer>comparingByValue().reversed());
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(list.size());
+
+			for (Entry<String, Integer> item : list) {
+				out.writeInt(item.getValue());
+				out.writeUTF(item.getKey());
+			}
+		}
+
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
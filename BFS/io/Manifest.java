@@ -0,0 +1,452 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * A persistent index of a directory tree, kept current through a shared watch.
+ */
+public final class Manifest implements AutoCloseable {
+
+	private static final int MAGIC = 0x41524d46;
+	private static final int VERSION = 2;
+
+	private final Path root;
+	private final Path file;
+	private final Watch watch;
+	private final AtomicBoolean dirty;
+	private final ForkJoinPool pool;
+	private final Node top;
+
+
+	private Manifest(Path root, Path file, Watch watch, ThreadFactory factory) throws IOException {
+		this.root = root.toAbsolutePath().normalize();
+		this.file = file;
+		this.watch = watch;
+		this.dirty = new AtomicBoolean();
+		this.pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+		final Node prior = load(file, this.root);
+
+		if (prior != null) {
+			top = prior;
+			factory.newThread(() -> verify(this.root, top)).start();
+		} else {
+			top = scan(this.root);
+			dirty.set(true);
+		}
+
+		watch.listen(this::changed);
+	}
+
+
+	public static Manifest open(Path root, Path file, Watch watch, ThreadFactory factory) throws IOException {
+		return new Manifest(root, file, watch, factory);
+	}
+
+
+	/**
+	 * Reads a saved tree, or discards the file and returns null when it is foreign, stale, for another root, or damaged.
+	 */
+	private static Node load(Path file, Path root) throws IOException {
+		Node top = null;
+
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			final ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+
+			if (data.getInt() == MAGIC && data.getInt() == VERSION && root.toString().equals(text(data))) {
+				top = read(data);
+				top = data.hasRemaining() || !top.folder ? null : top;
+			}
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (BufferUnderflowException|IllegalArgumentException e) {
+			top = null;
+		}
+
+		if (top == null) {
+			Files.deleteIfExists(file);
+		}
+
+		return top;
+	}
+
+	private static String text(ByteBuffer data) {
+		final byte[] name = new byte[data.getShort() & 0xffff];
+
+		data.get(name);
+
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	private static Node read(ByteBuffer data) {
+		final boolean folder = data.get() != 0;
+		final long size = data.getLong();
+		final long time = data.getLong();
+		final Node node = new Node(text(data), folder, size, time);
+
+		if (folder) {
+			for (int i = data.getInt(); i > 0; i--) {
+				final Node item = read(data);
+				node.items.put(item.name, item);
+			}
+		}
+
+		return node;
+	}
+
+	private static void text(DataOutputStream out, String text) throws IOException {
+		final byte[] name = text.getBytes(StandardCharsets.UTF_8);
+
+		out.writeShort(name.length);
+		out.write(name);
+	}
+
+	private static void write(DataOutputStream out, Node node) throws IOException {
+		out.writeByte(node.folder ? 1 : 0);
+		out.writeLong(node.size);
+		out.writeLong(node.time);
+		text(out, node.name);
+
+		if (node.folder) {
+			final Collection<Node> list = new ArrayList<>(node.items.values());
+
+			out.writeInt(list.size());
+
+			for (Node item : list) {
+				write(out, item);
+			}
+		}
+	}
+
+
+	private Node scan(Path path) throws IOException {
+		final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		final String name = path.equals(root) ? "" : path.getFileName().toString();
+
+		return pool.invoke(new Scan(path, name, attrs));
+	}
+
+	/**
+	 * Brings a loaded tree up to date: a directory whose mtime moved is listed again,
+	 * and every file is checked, since rewriting a file in place leaves its parent's mtime alone.
+	 */
+	private void verify(Path path, Node node) {
+		try {
+			final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+
+			watch.register(path);
+
+			if (attrs.lastModifiedTime().toMillis() != node.time) {
+				node.time = attrs.lastModifiedTime().toMillis();
+				sync(path, node);
+			}
+
+			for (Node item : node.items.values()) {
+				if (item.folder) {
+					verify(path.resolve(item.name), item);
+				} else {
+					check(node, path.resolve(item.name), item);
+				}
+			}
+		} catch (NoSuchFileException e) {
+		} catch (IOException e) {
+			warn("No verify of", path, e);
+		}
+	}
+
+	private void check(Node parent, Path path, Node item) throws IOException {
+		try {
+			final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+
+			if (attrs.isRegularFile() && attrs.size() == item.size && attrs.lastModifiedTime().toMillis() == item.time) {
+				return;
+			}
+		} catch (NoSuchFileException e) {
+		}
+
+		refresh(parent, path);
+	}
+
+	private static void warn(String what, Path path, IOException e) {
+		System.err.println(what + " " + path + ": " + e);
+	}
+
+	private void sync(Path path, Node node) throws IOException {
+		final List<String> seen = new ArrayList<>();
+
+		try (DirectoryStream<Path> list = Files.newDirectoryStream(path)) {
+			for (Path item : list) {
+				seen.add(item.getFileName().toString());
+				refresh(node, item);
+			}
+		}
+
+		node.items.keySet().retainAll(seen);
+		dirty.set(true);
+	}
+
+	private void refresh(Node parent, Path path) throws IOException {
+		final String name = path.getFileName().toString();
+		final Node prior = parent.items.get(name);
+		final BasicFileAttributes attrs;
+
+		try {
+			attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			parent.items.remove(name);
+			dirty.set(true);
+			return;
+		}
+
+		if (attrs.isDirectory()) {
+			if (prior == null || !prior.folder) {
+				parent.items.put(name, scan(path));
+			} else {
+				prior.time = attrs.lastModifiedTime().toMillis();
+			}
+		} else if (attrs.isRegularFile()) {
+			parent.items.put(name, new Node(name, false, attrs.size(), attrs.lastModifiedTime().toMillis()));
+		} else {
+			parent.items.remove(name);
+		}
+
+		dirty.set(true);
+	}
+
+	private void changed(Path path, List<WatchEvent<?>> events) {
+		final Node node = find(root.relativize(path).toString());
+
+		for (WatchEvent<?> event : events) {
+			try {
+				if (node == null || !node.folder) {
+					continue;
+				} else if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					sync(path, node);
+				} else {
+					refresh(node, path.resolve((Path)event.context()));
+				}
+			} catch (IOException e) {
+			}
+		}
+	}
+
+
+	public Node find(String path) {
+		Node node = top;
+
+		for (String part : path.split("/")) {
+			if (node == null || !node.folder) {
+				return null;
+			} else if (!part.isEmpty() && !part.equals(".")) {
+				node = node.items.get(part);
+			}
+		}
+
+		return node;
+	}
+
+	public void touch(String path) throws IOException {
+		Node node = top;
+		Path here = root;
+
+		for (String part : path.split("/")) {
+			if (!part.isEmpty() && !part.equals(".")) {
+				final Node next = node.items.get(part);
+
+				here = here.resolve(part);
+
+				if (next == null || !next.folder) {
+					refresh(node, here);
+					return;
+				}
+
+				node = next;
+			}
+		}
+	}
+
+	public boolean save() throws IOException {
+		if (dirty.getAndSet(false)) {
+			final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				text(out, root.toString());
+				write(out, top);
+			}
+
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			return true;
+		}
+
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			save();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+
+	public static class Node {
+
+		private final String name;
+		private final boolean folder;
+		private final NavigableMap<String, Node> items;
+
+		private volatile long size;
+		private volatile long time;
+
+
+		Node(String name, boolean folder, long size, long time) {
+			this.name = name;
+			this.folder = folder;
+			this.items = folder ? new ConcurrentSkipListMap<>() : Collections.emptyNavigableMap();
+			this.size = size;
+			this.time = time;
+		}
+
+
+		Node child(String part) {
+			return items.get(part);
+		}
+
+		void put(Node item) {
+			items.put(item.name, item);
+		}
+
+
+		public String name() {
+			return name;
+		}
+
+		public boolean isDirectory() {
+			return folder;
+		}
+
+		public long size() {
+			return size;
+		}
+
+		public long time() {
+			return time;
+		}
+
+		public Collection<Node> items() {
+			return items.values();
+		}
+
+	}
+
+	private final class Scan extends RecursiveTask<Node> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path path;
+		private final String name;
+		private final BasicFileAttributes attrs;
+
+
+		private Scan(Path path, String name, BasicFileAttributes attrs) {
+			this.path = path;
+			this.name = name;
+			this.attrs = attrs;
+		}
+
+
+		@Override
+		protected Node compute() {
+			final Node node = new Node(name, attrs.isDirectory(), attrs.size(), attrs.lastModifiedTime().toMillis());
+			final List<Scan> forks = new ArrayList<>();
+
+			if (node.folder) {
+				watch.register(path);
+
+				try (DirectoryStream<Path> list = Files.newDirectoryStream(path)) {
+					for (Path item : list) {
+						final String label = item.getFileName().toString();
+						final BasicFileAttributes info;
+
+						try {
+							info = Files.readAttributes(item, BasicFileAttributes.class);
+						} catch (IOException e) {
+							warn("Skipped", item, e);
+							continue;
+						}
+
+						if (info.isDirectory()) {
+							forks.add(new Scan(item, label, info));
+						} else if (info.isRegularFile()) {
+							node.items.put(label, new Node(label, false, info.size(), info.lastModifiedTime().toMillis()));
+						}
+					}
+				} catch (IOException e) {
+					warn("No listing of", path, e);
+				}
+
+				for (Scan item : invokeAll(forks)) {
+					node.items.put(item.name, item.join());
+				}
+			}
+
+			return node;
+		}
+
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.io;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Lists a directory by name first, then stats a window of entries in parallel while handing them out in name order.
+ */
+public final class Roster implements Iterator<Entry<Path, BasicFileAttributes>>, AutoCloseable {
+
+	private final List<Path> names;
+	private final ExecutorService pool;
+	private final int window;
+	private final Queue<Future<Entry<Path, BasicFileAttributes>>> ahead;
+
+	private int sent;
+	private Entry<Path, BasicFileAttributes> next;
+
+
+	private Roster(List<Path> names, ExecutorService pool, int window) {
+		this.names = names;
+		this.pool = pool;
+		this.window = Math.max(1, window);
+		this.ahead = new ArrayDeque<>();
+
+		fill();
+	}
+
+
+	public static Roster open(Path dir, ExecutorService pool, int window) throws IOException {
+		final List<Path> names = new ArrayList<>();
+
+		try (DirectoryStream<Path> list = Files.newDirectoryStream(dir)) {
+			for (Path item : list) {
+				names.add(item);
+			}
+		}
+
+		names.sort(null);
+
+		return new Roster(names, pool, window);
+	}
+
+	private static Entry<Path, BasicFileAttributes> stat(Path item) {
+		try {
+			final BasicFileAttributes info = Files.readAttributes(item, BasicFileAttributes.class);
+
+			return info.isDirectory() || info.isRegularFile() ? new SimpleImmutableEntry<>(item, info) : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void fill() {
+		while (ahead.size() < window && sent < names.size()) {
+			final Path item = names.get(sent++);
+
+			ahead.add(pool.submit(() -> stat(item)));
+		}
+	}
+
+
+	@Override
+	public boolean hasNext() {
+		while (next == null && !ahead.isEmpty()) {
+			final Future<Entry<Path, BasicFileAttributes>> head = ahead.poll();
+
+			fill();
+
+			try {
+				next = head.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+			} catch (ExecutionException|CancellationException e) {
+			}
+		}
+
+		return next != null;
+	}
+
+	@Override
+	public Entry<Path, BasicFileAttributes> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		final Entry<Path, BasicFileAttributes> item = next;
+
+		next = null;
+
+		return item;
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	@Override
+	public void close() {
+		for (Future<?> item : ahead) {
+			item.cancel(false);
+		}
+
+		ahead.clear();
+		sent = names.size();
+	}
+
+}
@@ -0,0 +1,313 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A compact binary trace of served requests, kept for replaying production-shaped load.
+ * <p>
+ * After a header, every request is one record of varints: the start relative to the prior record in
+ * microseconds, the connection and its request count, the method, status, kind, file size, bytes sent,
+ * the time taken in microseconds and the target, given once in full and later by its index.
+ */
+public final class Tape implements AutoCloseable {
+
+	private static final int MAGIC = 0x41525450;
+	private static final int VERSION = 1;
+	private static final int NAMES = 1 << 16;
+	private static final List<String> METHODS = Arrays.asList("GET", "HEAD", "POST", "PUT");
+
+	private final DataOutputStream out;
+	private final Map<String, Integer> names;
+	private final AtomicInteger wires;
+	private final long origin;
+	private long last;
+	private long count;
+
+
+	private Tape(DataOutputStream out) {
+		this.out = out;
+		this.names = new HashMap<>();
+		this.wires = new AtomicInteger();
+		this.origin = System.nanoTime();
+	}
+
+
+	public static Tape open(Path file, boolean relay) throws IOException {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeBoolean(relay);
+		out.writeLong(System.currentTimeMillis());
+
+		return new Tape(out);
+	}
+
+	public static Reel read(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a tape: " + file);
+			}
+
+			final Reel reel = new Reel(in.readBoolean(), in.readLong());
+			final List<String> seen = new ArrayList<>();
+			long start = 0;
+
+			try {
+				while (true) {
+					final Record item = new Record();
+					final long step = unsigned(in);
+
+					item.start = start += (step >>> 1) ^ -(step & 1);
+					item.wire = (int)unsigned(in);
+					item.seq = (int)unsigned(in);
+					item.method = (int)unsigned(in);
+					item.status = (int)unsigned(in);
+					item.kind = (int)unsigned(in);
+					item.size = unsigned(in);
+					item.bytes = unsigned(in);
+					item.micros = unsigned(in);
+
+					final int ref = (int)unsigned(in);
+
+					if (ref > 0) {
+						item.target = seen.get(ref - 1);
+					} else {
+						final byte[] name = new byte[(int)unsigned(in)];
+
+						in.readFully(name);
+						item.target = new String(name, StandardCharsets.UTF_8);
+
+						if (seen.size() < NAMES) {
+							seen.add(item.target);
+						}
+					}
+
+					reel.records.add(item);
+				}
+			} catch (EOFException e) {
+			}
+
+			return reel;
+		}
+	}
+
+	private static void unsigned(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.write((int)(value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+
+		out.write((int)value);
+	}
+
+	private static long unsigned(InputStream in) throws IOException {
+		long value = 0;
+
+		for (int shift = 0; ; shift += 7) {
+			final int b = in.read();
+
+			if (b < 0) {
+				throw new EOFException();
+			}
+
+			value |= (long)(b & 0x7f) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+
+	public int wire() {
+		return wires.incrementAndGet();
+	}
+
+	public synchronized void record(int wire, int seq, long begun, long ended, String line, String status, int kind, long size, long bytes) throws IOException {
+		final String[] head = line.split(" ");
+		final String target = head.length > 1 ? head[1] : "";
+		final int method = METHODS.indexOf(head[0]);
+		final long start = TimeUnit.NANOSECONDS.toMicros(begun - origin);
+		final long step = start - last;
+		final Integer ref = names.get(target);
+
+		unsigned(out, step << 1 ^ step >> 63);
+		unsigned(out, wire);
+		unsigned(out, seq);
+		unsigned(out, method < 0 ? METHODS.size() : method);
+		unsigned(out, status == null || status.length() < 12 ? 0 : Integer.parseInt(status.substring(9, 12)));
+		unsigned(out, kind);
+		unsigned(out, size);
+		unsigned(out, bytes);
+		unsigned(out, TimeUnit.NANOSECONDS.toMicros(ended - begun));
+
+		if (ref != null) {
+			unsigned(out, ref);
+		} else {
+			final byte[] name = target.getBytes(StandardCharsets.UTF_8);
+
+			unsigned(out, 0);
+			unsigned(out, name.length);
+			out.write(name);
+
+			if (names.size() < NAMES) {
+				names.put(target, names.size() + 1);
+			}
+		}
+
+		last = start;
+		count++;
+	}
+
+	public synchronized long records() {
+		return count;
+	}
+
+	public synchronized void flush() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+		}
+	}
+
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+
+	/**
+	 * The records of a tape in the order they were written, which is the order the requests completed.
+	 */
+	public static final class Reel {
+
+		private final boolean relay;
+		private final long epoch;
+		private final List<Record> records;
+
+
+		private Reel(boolean relay, long epoch) {
+			this.relay = relay;
+			this.epoch = epoch;
+			this.records = new ArrayList<>();
+		}
+
+
+		public boolean relay() {
+			return relay;
+		}
+
+		public long epoch() {
+			return epoch;
+		}
+
+		public List<Record> records() {
+			return records;
+		}
+
+	}
+
+	public static final class Record {
+
+		private long start;
+		private int wire;
+		private int seq;
+		private int method;
+		private int status;
+		private int kind;
+		private long size;
+		private long bytes;
+		private long micros;
+		private String target;
+
+
+		private Record() {
+		}
+
+
+		public long start() {
+			return start;
+		}
+
+		public int wire() {
+			return wire;
+		}
+
+		public int seq() {
+			return seq;
+		}
+
+		public String method() {
+			return method < METHODS.size() ? METHODS.get(method) : "OTHER";
+		}
+
+		public int status() {
+			return status;
+		}
+
+		public int kind() {
+			return kind;
+		}
+
+		public long size() {
+			return size;
+		}
+
+		public long bytes() {
+			return bytes;
+		}
+
+		public long micros() {
+			return micros;
+		}
+
+		public String target() {
+			return target;
+		}
+
+	}
+
+}
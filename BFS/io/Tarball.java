@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Ustar headers for streaming a directory tree, with pax records for long names and large sizes.
+ */
+public final class Tarball {
+
+	private static final int BLOCK = 512;
+	private static final long OCTAL_MAX = 077777777777L;
+
+
+	private Tarball() {
+	}
+
+
+	public static ByteBuffer header(String name, boolean folder, long size, long mtime) {
+		final byte[] path = (folder && !name.endsWith("/") ? name + "/" : name).getBytes(StandardCharsets.UTF_8);
+		final StringBuilder pax = new StringBuilder();
+
+		if (path.length > 100) {
+			record(pax, "path", new String(path, StandardCharsets.UTF_8));
+		}
+
+		if (size > OCTAL_MAX) {
+			record(pax, "size", Long.toString(size));
+		}
+
+		final byte[] ext = pax.toString().getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer out = ByteBuffer.allocate(BLOCK + (ext.length > 0 ? BLOCK + pad(ext.length) + ext.length : 0));
+
+		if (ext.length > 0) {
+			block(out, "PaxHeader".getBytes(StandardCharsets.US_ASCII), 'x', ext.length, mtime, 0644);
+			out.put(ext).position(out.position() + pad(ext.length));
+		}
+
+		block(out, path, folder ? '5' : '0', folder ? 0 : Math.min(size, OCTAL_MAX), mtime, folder ? 0755 : 0644);
+
+		out.flip();
+
+		return out;
+	}
+
+	public static ByteBuffer padding(long size) {
+		return ByteBuffer.allocate(pad(size));
+	}
+
+	public static ByteBuffer trailer() {
+		return ByteBuffer.allocate(BLOCK * 2);
+	}
+
+
+	private static int pad(long size) {
+		return (int)((BLOCK - size % BLOCK) % BLOCK);
+	}
+
+	private static void record(StringBuilder pax, String key, String value) {
+		final int body = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3;
+		int size = body + Integer.toString(body).length();
+
+		if (Integer.toString(size).length() > Integer.toString(body).length()) {
+			size++;
+		}
+
+		pax.append(size).append(' ').append(key).append('=').append(value).append('\n');
+	}
+
+	private static void block(ByteBuffer out, byte[] name, char type, long size, long mtime, int mode) {
+		final byte[] head = new byte[BLOCK];
+		int sum = 0;
+
+		System.arraycopy(name, 0, head, 0, Math.min(100, name.length));
+		octal(head, 100, 8, mode);
+		octal(head, 108, 8, 0);
+		octal(head, 116, 8, 0);
+		octal(head, 124, 12, size);
+		octal(head, 136, 12, mtime / 1000);
+		head[156] = (byte)type;
+		System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, head, 257, 8);
+
+		for (int i = 148; i < 156; i++) {
+			head[i] = ' ';
+		}
+
+		for (byte item : head) {
+			sum += item & 0xff;
+		}
+
+		octal(head, 148, 7, sum);
+		out.put(head);
+	}
+
+	private static void octal(byte[] head, int offset, int length, long value) {
+		final String text = Long.toOctalString(value);
+
+		for (int i = 0, pad = length - 1 - text.length(); i < length - 1; i++) {
+			head[offset + i] = (byte)(i < pad ? '0' : text.charAt(i - pad));
+		}
+
+		head[offset + length - 1] = 0;
+	}
+
+}
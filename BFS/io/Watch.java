@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.io;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * One watch service over a directory tree, shared by everything that follows it,
+ * so each directory costs one inotify watch however many listeners there are.
+ */
+public final class Watch implements AutoCloseable {
+
+	private final WatchService service;
+	private final Map<WatchKey, Path> keys;
+	private final List<Listener> listeners;
+
+
+	private Watch(Path root) throws IOException {
+		this.service = root.getFileSystem().newWatchService();
+		this.keys = new ConcurrentHashMap<>();
+		this.listeners = new CopyOnWriteArrayList<>();
+	}
+
+
+	public static Watch open(Path root) throws IOException {
+		return new Watch(root);
+	}
+
+
+	public void listen(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Starts handing out events, once every listener is in; events raised before that are queued, not lost.
+	 */
+	public void start(ThreadFactory factory) {
+		factory.newThread(this::pump).start();
+	}
+
+	/**
+	 * Watches one directory; failing that, e.g. past the inotify limit, only costs freshness, so it is logged and skipped.
+	 */
+	public void register(Path dir) {
+		try {
+			keys.put(dir.register(service,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY), dir);
+		} catch (IOException e) {
+			System.err.println("No watch on " + dir + ": " + e);
+		}
+	}
+
+	/**
+	 * Watches a directory and everything below it.
+	 */
+	public void cover(Path top) {
+		try {
+			Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					register(dir);
+
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					return FileVisitResult.CONTINUE;
+				}
+
+			});
+		} catch (IOException e) {
+			System.err.println("No watch on " + top + ": " + e);
+		}
+	}
+
+	private void pump() {
+		try {
+			while (true) {
+				final WatchKey key = service.take();
+				final Path dir = keys.get(key);
+				final List<WatchEvent<?>> events = key.pollEvents();
+
+				if (!key.reset()) {
+					keys.remove(key);
+				}
+
+				if (dir == null) {
+					continue;
+				}
+
+				for (WatchEvent<?> event : events) {
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(dir.resolve((Path)event.context()))) {
+						cover(dir.resolve((Path)event.context()));
+					}
+				}
+
+				for (Listener listener : listeners) {
+					listener.changed(dir, events);
+				}
+			}
+		} catch (InterruptedException|ClosedWatchServiceException e) {
+		}
+	}
+
+	public int watched() {
+		return keys.size();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		service.close();
+	}
+
+
+	public interface Listener {
+
+		/**
+		 * Takes one batch of events for a watched directory, on the watch thread; new subdirectories are already watched.
+		 */
+		void changed(Path dir, List<WatchEvent<?>> events);
+
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.lang;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Striped pools of reusable byte buffers, in power-of-two size classes.
+ */
+public final class Buffers {
+
+	private static final int MIN_SHIFT = 12;
+	private static final int MAX_SHIFT = 18;
+	private static final int STRIPES = Integer.highestOneBit(Math.max(2, Runtime.getRuntime().availableProcessors()) * 2);
+
+	public static final Buffers HEAP = new Buffers(false);
+	public static final Buffers DIRECT = new Buffers(true);
+
+	private final boolean direct;
+	private final AtomicReferenceArray<ByteBuffer> slots;
+	private final LongAdder hits;
+	private final LongAdder misses;
+
+
+	private Buffers(boolean direct) {
+		this.direct = direct;
+		this.slots = new AtomicReferenceArray<>((MAX_SHIFT - MIN_SHIFT + 1) * STRIPES);
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+
+	private static int shift(long hint) {
+		final long size = Math.max(1L << MIN_SHIFT, Math.min(1L << MAX_SHIFT, hint));
+
+		return 64 - Long.numberOfLeadingZeros(size - 1);
+	}
+
+	private static int stripe() {
+		return (int)Thread.currentThread().getId() & (STRIPES - 1);
+	}
+
+
+	public ByteBuffer take(long hint) {
+		final int shift = shift(hint);
+		final int base = (shift - MIN_SHIFT) * STRIPES;
+		final int seed = stripe();
+		ByteBuffer item;
+
+		for (int i = 0; i < STRIPES; i++) {
+			if ((item = slots.getAndSet(base + ((seed + i) & (STRIPES - 1)), null)) != null) {
+				hits.increment();
+				item.clear();
+
+				return item;
+			}
+		}
+
+		misses.increment();
+
+		return direct
+			? ByteBuffer.allocateDirect(1 << shift)
+			: ByteBuffer.allocate(1 << shift);
+	}
+
+	public void give(ByteBuffer item) {
+		if (item != null && item.isDirect() == direct && Integer.bitCount(item.capacity()) == 1) {
+			final int shift = Integer.numberOfTrailingZeros(item.capacity());
+			final int base = (shift - MIN_SHIFT) * STRIPES;
+			final int seed = stripe();
+
+			if (shift >= MIN_SHIFT && shift <= MAX_SHIFT) {
+				for (int i = 0; i < STRIPES; i++) {
+					if (slots.compareAndSet(base + ((seed + i) & (STRIPES - 1)), null, item)) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+}
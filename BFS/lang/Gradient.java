@@ -0,0 +1,96 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.lang;
+
+
+/**
+ * An adaptive concurrency limit, driven by the gradient between long-term and recent latency.
+ */
+public final class Gradient {
+
+	private final int min;
+	private final int max;
+	private final double tolerance;
+
+	private double estimate;
+	private double longRtt;
+	private double shortRtt;
+	private int inflight;
+
+
+	public Gradient(int min, int max, int init) {
+		this(min, max, init, 2.0);
+	}
+
+	public Gradient(int min, int max, int init, double tolerance) {
+		this.min = Math.max(1, min);
+		this.max = Math.max(this.min, max);
+		this.tolerance = tolerance;
+		this.estimate = Math.max(this.min, Math.min(this.max, init));
+	}
+
+
+	public synchronized boolean acquire() {
+		if (inflight < (int)estimate) {
+			inflight++;
+			return true;
+		}
+
+		return false;
+	}
+
+	public synchronized void release() {
+		inflight--;
+	}
+
+	public synchronized void sample(long nanos) {
+		if (nanos > 0) {
+			shortRtt = shortRtt == 0 ? nanos : shortRtt + (nanos - shortRtt) / 4;
+			longRtt = longRtt == 0 ? nanos : longRtt + (nanos - longRtt) / 64;
+
+			final double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+			final double next = estimate * gradient + Math.sqrt(estimate);
+
+			estimate = Math.max(min, Math.min(max, estimate * 0.8 + next * 0.2));
+
+			if (longRtt > shortRtt * 2) {
+				longRtt *= 0.95;
+			}
+		}
+	}
+
+
+	public synchronized int limit() {
+		return (int)estimate;
+	}
+
+	public synchronized int inflight() {
+		return inflight;
+	}
+
+	public synchronized long latency() {
+		return (long)shortRtt;
+	}
+
+}
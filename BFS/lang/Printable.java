@@ -1,68 +1,80 @@
-/*
- * MIT License
- *
- * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in all
- * copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
- * SOFTWARE.
- */
-package BFS.lang;
-
-
-public abstract class Printable {
-
-	private final String tempy;
-
-
-	protected Printable(
-		String template
-	) {
-		this.tempy = template;
-	}
-
-
-	protected final String $(Object... args) {
-		return String.format(tempy, args);
-	}
-
-
-	public static class TypedPrinter1<T> extends Printable {
-
-		public TypedPrinter1(String template) {
-			super(template);
-		}
-
-		public final String print(T arg) {
-			return $(arg);
-		}
-
-	}
-
-	public static class TypedPrinter2<T1, T2> extends Printable {
-
-		public TypedPrinter2(String template) {
-			super(template);
-		}
-
-		public final String print(T1 arg1, T2 arg2) {
-			return $(arg1, arg2);
-		}
-
-	}
-
-}
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.lang;
+
+
+public abstract class Printable {
+
+	private final String tempy;
+	private final String[] parts;
+
+
+	protected Printable(
+		String template
+	) {
+		this.tempy = template;
+		this.parts = template.replace("%s", "").indexOf('%') < 0 ? template.split("%s", -1) : null;
+	}
+
+
+	protected final String $(Object... args) {
+		if (parts == null || parts.length != args.length + 1) {
+			return String.format(tempy, args);
+		}
+
+		final StringBuilder out = new StringBuilder(tempy.length() + 32);
+
+		for (int i = 0; i < args.length; i++) {
+			out.append(parts[i]).append(args[i]);
+		}
+
+		return out.append(parts[args.length]).toString();
+	}
+
+
+	public static class TypedPrinter1<T> extends Printable {
+
+		public TypedPrinter1(String template) {
+			super(template);
+		}
+
+		public final String print(T arg) {
+			return $(arg);
+		}
+
+	}
+
+	public static class TypedPrinter2<T1, T2> extends Printable {
+
+		public TypedPrinter2(String template) {
+			super(template);
+		}
+
+		public final String print(T1 arg1, T2 arg2) {
+			return $(arg1, arg2);
+		}
+
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.lang;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Token buckets per connection, per peer and overall, drained in bounded slices.
+ */
+public final class Shaper {
+
+	private static final long SPAN = 1L << 22;
+
+	private final long rate;
+	private final long peer;
+	private final long pipe;
+	private final int cell;
+
+	private final Bucket total;
+	private final Map<Object, Bucket> peers;
+	private final Tally tally;
+
+
+	public Shaper(long rate, long peer, long pipe, int cell, Tally tally) {
+		this.rate = Math.max(0, rate);
+		this.peer = Math.max(0, peer);
+		this.pipe = Math.max(0, pipe);
+		this.cell = Math.max(512, cell);
+		this.total = this.rate > 0 ? new Bucket(this.rate, this.cell) : null;
+		this.peers = new ConcurrentHashMap<>();
+		this.tally = tally;
+
+		tally.gauge("shape.peers", peers::size);
+	}
+
+
+	public boolean active() {
+		return rate > 0 || peer > 0 || pipe > 0;
+	}
+
+	public Flow open(Object client) {
+		return new Flow(
+			pipe > 0 ? new Bucket(pipe, cell) : null,
+			peer > 0 ? client : null);
+	}
+
+	/**
+	 * Drops the buckets of peers that have gone quiet; a full bucket is no different from a new one, so nobody gains by it.
+	 */
+	public void prune() {
+		peers.values().removeIf(Bucket::retire);
+	}
+
+	private long claim(Object client, long amount) {
+		long wait;
+
+		do {
+			wait = peers.computeIfAbsent(client, key -> new Bucket(peer, cell)).claim(amount);
+		} while (wait < 0);
+
+		return wait;
+	}
+
+
+	public final class Flow {
+
+		private final Bucket own;
+		private final Object mate;
+
+		private volatile long moved = System.nanoTime();
+		private long sent;
+
+
+		private Flow(Bucket own, Object mate) {
+			this.own = own;
+			this.mate = mate;
+		}
+
+
+		public long slice() {
+			return active() ? cell : SPAN;
+		}
+
+		public long moved() {
+			return moved;
+		}
+
+		public long sent() {
+			return sent;
+		}
+
+		public WritableByteChannel meter(WritableByteChannel out) {
+			return new WritableByteChannel() {
+
+				@Override
+				public int write(ByteBuffer src) throws IOException {
+					final int step = out.write(src);
+
+					sent += step;
+
+					return step;
+				}
+
+				@Override
+				public boolean isOpen() {
+					return out.isOpen();
+				}
+
+				@Override
+				public void close() throws IOException {
+					out.close();
+				}
+
+			};
+		}
+
+		public void pace(long bytes) throws InterruptedIOException {
+			if (bytes > 0) {
+				moved = System.nanoTime();
+				sent += bytes;
+			}
+
+			if (bytes > 0 && active()) {
+				long wait = 0;
+
+				if (own != null) wait = Math.max(wait, own.claim(bytes));
+				if (mate != null) wait = Math.max(wait, claim(mate, bytes));
+				if (total != null) wait = Math.max(wait, total.claim(bytes));
+
+				tally.add("shape.bytes", bytes);
+
+				if (wait > 0) {
+					tally.inc("shape.waits");
+					tally.add("shape.delay.us", wait / 1000);
+
+					try {
+						TimeUnit.NANOSECONDS.sleep(wait);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+			}
+		}
+
+	}
+
+	private static final class Bucket {
+
+		private final double rate;
+		private final double burst;
+
+		private double level;
+		private long stamp;
+		private boolean retired;
+
+
+		private Bucket(long perSecond, int cell) {
+			this.rate = perSecond / 1e9;
+			this.burst = Math.max(cell, perSecond / 10.0);
+			this.level = burst;
+			this.stamp = System.nanoTime();
+		}
+
+
+		/**
+		 * Returns the nanoseconds to wait before the amount is covered, or -1 once retired, to send the caller back to the map.
+		 */
+		private synchronized long claim(long amount) {
+			if (retired) {
+				return -1;
+			}
+
+			final long now = System.nanoTime();
+
+			level = Math.min(burst, level + (now - stamp) * rate) - amount;
+			stamp = now;
+
+			return level >= 0 ? 0 : (long)(-level / rate);
+		}
+
+		private synchronized boolean retire() {
+			return retired = level + (System.nanoTime() - stamp) * rate >= burst;
+		}
+
+	}
+
+}
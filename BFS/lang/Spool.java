@@ -0,0 +1,183 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.lang;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * A resumable file-to-channel transfer of a declared length, stepping down
+ * from sendfile to mmap to a buffered copy whenever a strategy stalls.
+ * The copy buffer is pooled, sized to what is left to send, and kept on
+ * the heap for stream-backed channels, which copy out of a byte array anyway.
+ */
+public final class Spool implements AutoCloseable {
+
+	public static final int SEND = 0;
+	public static final int MMAP = 1;
+	public static final int COPY = 2;
+
+	private static final String[] MODES = { "sendfile", "mmap", "copy" };
+	private static final long WINDOW = 1L << 26;
+	private static final int BLOCK = 1 << 16;
+
+	private final FileChannel source;
+	private final long offset;
+	private final long length;
+	private final long birth;
+
+	private long position;
+	private int mode;
+	private int steps;
+	private ByteBuffer pending;
+	private ByteBuffer pooled;
+	private Buffers pool;
+
+
+	public Spool(FileChannel source, long length, int mode) {
+		this(source, 0, length, mode);
+	}
+
+	public Spool(FileChannel source, long offset, long length, int mode) {
+		this.source = source;
+		this.offset = offset;
+		this.length = length;
+		this.birth = System.nanoTime();
+		this.mode = Math.max(SEND, Math.min(COPY, mode));
+	}
+
+
+	public static int mode(String name) {
+		for (int i = 0; i < MODES.length; i++) {
+			if (MODES[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+
+		return SEND;
+	}
+
+	public static String name(int mode) {
+		return MODES[mode];
+	}
+
+	private static boolean blocking(WritableByteChannel out) {
+		return !(out instanceof SelectableChannel) || ((SelectableChannel)out).isBlocking();
+	}
+
+
+	public long step(WritableByteChannel out, long max) throws IOException {
+		final long want = Math.min(max, length - position);
+		long done = 0;
+
+		if (want > 0) {
+			steps++;
+
+			if (pending != null && pending.hasRemaining()) {
+				done = out.write(pending);
+			} else if (mode == SEND) {
+				if ((done = source.transferTo(offset + position, want, out)) == 0 && blocking(out)) {
+					expect(1);
+					mode = MMAP;
+				}
+			} else if (mode == MMAP) {
+				try {
+					expect(Math.min(want, WINDOW));
+					pending = source.map(FileChannel.MapMode.READ_ONLY, offset + position, Math.min(want, WINDOW));
+					done = out.write(pending);
+				} catch (EOFException e) {
+					throw e;
+				} catch (IOException e) {
+					mode = COPY;
+				}
+			} else {
+				if (pooled == null) {
+					pool = out instanceof SelectableChannel ? Buffers.DIRECT : Buffers.HEAP;
+					pooled = pool.take(Math.min(want, BLOCK));
+				}
+
+				pending = pooled;
+				pending.clear().limit((int)Math.min(want, pooled.capacity()));
+
+				if (source.read(pending, offset + position) < 0) {
+					throw new EOFException();
+				}
+
+				pending.flip();
+				done = out.write(pending);
+			}
+
+			position += done;
+		}
+
+		return done;
+	}
+
+	private void expect(long count) throws IOException {
+		if (offset + position + count > source.size()) {
+			throw new EOFException(String.format("%s of %s bytes", position, length));
+		}
+	}
+
+
+	@Override
+	public void close() {
+		if (pool != null) {
+			pool.give(pooled);
+		}
+
+		pending = pooled = null;
+	}
+
+
+	public boolean done() {
+		return position >= length;
+	}
+
+	public long position() {
+		return position;
+	}
+
+	public long remaining() {
+		return length - position;
+	}
+
+	public int mode() {
+		return mode;
+	}
+
+	public int steps() {
+		return steps;
+	}
+
+	public long elapsed() {
+		return System.nanoTime() - birth;
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.lang;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+
+/**
+ * A named bag of counters and gauges, meant to be dumped periodically.
+ */
+public final class Tally {
+
+	private final Map<String, LongAdder> adders = new ConcurrentHashMap<>();
+	private final Map<String, LongSupplier> probes = new ConcurrentHashMap<>();
+
+
+	public LongAdder counter(String name) {
+		return adders.computeIfAbsent(name, key -> new LongAdder());
+	}
+
+	public void gauge(String name, LongSupplier probe) {
+		probes.put(name, probe);
+	}
+
+	public void rate(String name, String counter) {
+		final LongAdder item = counter(counter);
+		final long[] last = { item.sum(), System.nanoTime() };
+
+		gauge(name, () -> {
+			synchronized (last) {
+				final long sum = item.sum();
+				final long now = System.nanoTime();
+				final long per = (sum - last[0]) * 1_000_000_000L / Math.max(1, now - last[1]);
+
+				last[0] = sum;
+				last[1] = now;
+
+				return per;
+			}
+		});
+	}
+
+	public void inc(String name) {
+		counter(name).increment();
+	}
+
+	public void add(String name, long delta) {
+		counter(name).add(delta);
+	}
+
+
+	public Map<String, Long> snap() {
+		final Map<String, Long> tmp = new TreeMap<>();
+
+		adders.forEach((name, item) -> tmp.put(name, item.sum()));
+		probes.forEach((name, item) -> tmp.put(name, item.getAsLong()));
+
+		return tmp;
+	}
+
+}
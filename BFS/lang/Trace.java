@@ -0,0 +1,238 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.lang;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Samples requests and times their phases, with the bytes moved and allocated in each.
+ */
+public final class Trace {
+
+	private final int every;
+	private final boolean json;
+	private final AtomicLong seen;
+	private final Span none;
+
+
+	public Trace(int every, boolean json) {
+		this.every = every;
+		this.json = json;
+		this.seen = new AtomicLong();
+		this.none = new Span(null);
+	}
+
+
+	private static long allocated() {
+		return Probe.ALLOC == null ? 0 : Probe.ALLOC.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void quote(StringBuilder out, String text) {
+		out.append('"');
+
+		for (int i = 0; text != null && i < text.length(); i++) {
+			final char c = text.charAt(i);
+
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int)c));
+			} else {
+				out.append(c);
+			}
+		}
+
+		out.append('"');
+	}
+
+	public boolean active() {
+		return every > 0 && (json || Probe.FLIGHT);
+	}
+
+	public Span start(String request) {
+		return active() && seen.getAndIncrement() % every == 0 ? new Span(request) : none;
+	}
+
+
+	public final class Span {
+
+		private final String request;
+		private final long born;
+		private final List<Object[]> phases;
+		private String name;
+		private long since;
+		private long alloc;
+		private long bytes;
+		private PhaseEvent event;
+
+
+		private Span(String request) {
+			this.request = request;
+			this.born = System.nanoTime();
+			this.phases = request == null ? null : new ArrayList<>();
+		}
+
+
+		private void close() {
+			if (name != null) {
+				final long took = System.nanoTime() - since;
+				final long used = allocated() - alloc;
+
+				if (event != null) {
+					event.end();
+					event.bytes = bytes;
+					event.allocated = used;
+					event.commit();
+					event = null;
+				}
+
+				phases.add(new Object[] { name, took / 1000, bytes, used });
+				name = null;
+			}
+		}
+
+		public void phase(String label) {
+			if (phases != null) {
+				close();
+
+				name = label;
+				bytes = 0;
+				alloc = allocated();
+				since = System.nanoTime();
+
+				if (Probe.FLIGHT) {
+					event = new PhaseEvent();
+					event.request = request;
+					event.phase = label;
+					event.begin();
+				}
+			}
+		}
+
+		public void bytes(long count) {
+			if (phases != null) {
+				bytes += count;
+			}
+		}
+
+		public void finish(String status) {
+			if (phases != null) {
+				close();
+
+				if (json) {
+					final StringBuilder out = new StringBuilder(256);
+
+					out.append("{\"time\":");
+					quote(out, Instant.now().toString());
+					out.append(",\"request\":");
+					quote(out, request);
+					out.append(",\"status\":");
+					quote(out, status);
+					out.append(",\"us\":").append((System.nanoTime() - born) / 1000).append(",\"phases\":[");
+
+					for (int i = 0; i < phases.size(); i++) {
+						final Object[] item = phases.get(i);
+
+						out.append(i > 0 ? ",{\"name\":" : "{\"name\":");
+						quote(out, (String)item[0]);
+						out.append(",\"us\":").append(item[1]).append(",\"bytes\":").append(item[2]).append(",\"alloc\":").append(item[3]).append('}');
+					}
+
+					System.err.println(out.append("]}").insert(0, "TRACE "));
+				}
+
+				phases.clear();
+			}
+		}
+
+	}
+
+	private static final class Probe {
+
+		private static final com.sun.management.ThreadMXBean ALLOC = alloc();
+		private static final boolean FLIGHT = flight();
+
+
+		private static com.sun.management.ThreadMXBean alloc() {
+			try {
+				final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+				if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+					((com.sun.management.ThreadMXBean)bean).setThreadAllocatedMemoryEnabled(true);
+
+					return (com.sun.management.ThreadMXBean)bean;
+				}
+			} catch (LinkageError|RuntimeException e) {
+			}
+
+			return null;
+		}
+
+		private static boolean flight() {
+			try {
+				return FlightRecorder.isAvailable();
+			} catch (LinkageError|RuntimeException e) {
+				return false;
+			}
+		}
+
+	}
+
+	@Name("BFS.Phase")
+	@Label("Request Phase")
+	@Category("Arachnid")
+	@StackTrace(false)
+	static final class PhaseEvent extends Event {
+
+		@Label("Request")
+		String request;
+
+		@Label("Phase")
+		String phase;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Allocated")
+		@DataAmount
+		long allocated;
+
+	}
+
+}
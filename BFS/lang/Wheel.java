@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.lang;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A hashed timer wheel: arming is a queue insert, and each tick only visits the slot it lands on.
+ */
+public final class Wheel {
+
+	private final long tick;
+	private final Queue<Timer>[] slots;
+	private final AtomicInteger armed;
+
+	private volatile long cursor;
+
+
+	@SuppressWarnings({
+		"rawtypes",
+		"unchecked"
+	})
+	public Wheel(long tickMillis, int size) {
+		this.tick = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+		this.slots = new Queue[Integer.highestOneBit(Math.max(2, size))];
+		this.armed = new AtomicInteger();
+		this.cursor = System.nanoTime() / tick;
+
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new ConcurrentLinkedQueue<>();
+		}
+	}
+
+
+	public void schedule(Task task, long at) {
+		final long spot = Math.max(at / tick, cursor);
+
+		armed.incrementAndGet();
+		slots[(int)(spot & slots.length - 1)].add(new Timer(task, at));
+	}
+
+	public synchronized void advance() {
+		final long now = System.nanoTime();
+
+		for (; cursor <= now / tick; cursor++) {
+			final Iterator<Timer> slot = slots[(int)(cursor & slots.length - 1)].iterator();
+
+			while (slot.hasNext()) {
+				final Timer item = slot.next();
+
+				if (item.at <= now) {
+					slot.remove();
+					armed.decrementAndGet();
+
+					final long next = item.task.expire(now);
+
+					if (next > 0) {
+						schedule(item.task, next);
+					}
+				}
+			}
+		}
+
+		cursor = now / tick;
+	}
+
+	public int armed() {
+		return armed.get();
+	}
+
+
+	public interface Task {
+
+		/**
+		 * Runs once the armed time has passed; returns the next time to look again, or 0 to disarm.
+		 */
+		long expire(long now);
+
+	}
+
+	private static final class Timer {
+
+		private final Task task;
+		private final long at;
+
+
+		private Timer(Task task, long at) {
+			this.task = task;
+			this.at = at;
+		}
+
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import BFS.lang.Shaper;
+import BFS.lang.Spool;
+
+
+/**
+ * A channel that frames every write as one chunk of a chunked transfer coding;
+ * closing it without finishing leaves the body unterminated, on purpose.
+ */
+public final class Chunked implements WritableByteChannel {
+
+	private static final byte[] TRAILER = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final WritableByteChannel out;
+	private final Shaper.Flow flow;
+	private final ByteBuffer crlf;
+	private boolean open = true;
+
+
+	public Chunked(WritableByteChannel out, Shaper.Flow flow) {
+		this.out = out;
+		this.flow = flow;
+		this.crlf = ByteBuffer.wrap(new byte[] { '\r', '\n' });
+	}
+
+
+	private void drain(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			out.write(data);
+		}
+	}
+
+	private void begin(long size) throws IOException {
+		drain(ByteBuffer.wrap(Long.toHexString(size).concat("\r\n").getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	private void end() throws IOException {
+		crlf.rewind();
+		drain(crlf);
+	}
+
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		final int size = src.remaining();
+
+		if (size > 0) {
+			flow.pace(size);
+			begin(size);
+			drain(src);
+			end();
+		}
+
+		return size;
+	}
+
+	public long send(Spool spool) throws IOException {
+		final long size = spool.remaining();
+
+		if (size > 0) {
+			begin(size);
+
+			while (!spool.done()) {
+				flow.pace(spool.step(out, flow.slice()));
+			}
+
+			end();
+		}
+
+		return size;
+	}
+
+	public void finish() throws IOException {
+		if (open) {
+			drain(ByteBuffer.wrap(TRAILER));
+			open = false;
+		}
+	}
+
+
+	@Override
+	public boolean isOpen() {
+		return open && out.isOpen();
+	}
+
+	@Override
+	public void close() {
+		open = false;
+	}
+
+}
@@ -0,0 +1,296 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import BFS.lang.Wheel;
+
+
+/**
+ * One client connection as the request pipeline sees it, whichever transport accepted it.
+ */
+public interface Conduit extends Closeable {
+
+	InputStream input() throws IOException;
+
+	ReadableByteChannel source() throws IOException;
+
+	WritableByteChannel sink() throws IOException;
+
+	/** The selectable channel underneath, or null for a plain socket. */
+	SocketChannel channel();
+
+	InetAddress peer();
+
+	void timeout(int millis) throws IOException;
+
+	void shutdownOutput() throws IOException;
+
+
+	public static Conduit of(Socket socket) {
+		return new Wrap(socket);
+	}
+
+	public static Conduit of(SocketChannel channel, Wheel wheel) throws IOException {
+		return new Bare(channel, wheel);
+	}
+
+
+	static final class Wrap implements Conduit {
+
+		private final Socket socket;
+		private ReadableByteChannel source;
+		private WritableByteChannel sink;
+
+
+		private Wrap(Socket socket) {
+			this.socket = socket;
+		}
+
+
+		@Override
+		public InputStream input() throws IOException {
+			return socket.getInputStream();
+		}
+
+		@Override
+		public ReadableByteChannel source() throws IOException {
+			if (source == null) {
+				source = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(socket.getInputStream());
+			}
+
+			return source;
+		}
+
+		@Override
+		public WritableByteChannel sink() throws IOException {
+			if (sink == null) {
+				sink = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(socket.getOutputStream());
+			}
+
+			return sink;
+		}
+
+		@Override
+		public SocketChannel channel() {
+			return socket.getChannel();
+		}
+
+		@Override
+		public InetAddress peer() {
+			return socket.getInetAddress();
+		}
+
+		@Override
+		public void timeout(int millis) throws IOException {
+			socket.setSoTimeout(millis);
+		}
+
+		@Override
+		public void shutdownOutput() throws IOException {
+			socket.shutdownOutput();
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+
+		@Override
+		public String toString() {
+			final Object self = socket.getChannel() != null ? socket.getChannel() : socket;
+
+			return String.format("%s#%s @ %s",
+				self.getClass().getCanonicalName(),
+				System.identityHashCode(self),
+				socket.getRemoteSocketAddress());
+		}
+
+	}
+
+	/**
+	 * A channel without a socket adaptor, such as a Unix domain socket; the deadline wheel closes reads that time out.
+	 */
+	static final class Bare implements Conduit, Wheel.Task {
+
+		private final SocketChannel channel;
+		private final Wheel wheel;
+		private final ReadableByteChannel source;
+		private final AtomicBoolean armed;
+		private volatile int timeout;
+		private volatile long deadline;
+		private volatile boolean expired;
+
+
+		private Bare(SocketChannel channel, Wheel wheel) throws IOException {
+			this.channel = channel;
+			this.wheel = wheel;
+			this.armed = new AtomicBoolean();
+			this.source = new ReadableByteChannel() {
+
+				@Override
+				public int read(ByteBuffer dst) throws IOException {
+					if (timeout > 0 && wheel != null) {
+						arm(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+					}
+
+					try {
+						return channel.read(dst);
+					} catch (AsynchronousCloseException e) {
+						if (expired) {
+							throw new SocketTimeoutException("Read timed out");
+						}
+
+						throw e;
+					} finally {
+						deadline = 0;
+					}
+				}
+
+				@Override
+				public boolean isOpen() {
+					return channel.isOpen();
+				}
+
+				@Override
+				public void close() throws IOException {
+					channel.close();
+				}
+
+			};
+
+			channel.configureBlocking(true);
+		}
+
+
+		/**
+		 * Only the first read puts the conduit on the wheel; later ones just move the deadline it checks.
+		 */
+		private void arm(long at) {
+			deadline = at;
+
+			if (armed.compareAndSet(false, true)) {
+				wheel.schedule(this, at);
+			}
+		}
+
+		@Override
+		public long expire(long now) {
+			final long due = deadline;
+
+			if (due == 0) {
+				armed.set(false);
+
+				final long again = deadline;
+
+				return again != 0 && armed.compareAndSet(false, true) ? again : 0;
+			} else if (due > now) {
+				return due;
+			}
+
+			expired = true;
+			armed.set(false);
+
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+
+			return 0;
+		}
+
+
+		@Override
+		public InputStream input() {
+			return Channels.newInputStream(source);
+		}
+
+		@Override
+		public ReadableByteChannel source() {
+			return source;
+		}
+
+		@Override
+		public WritableByteChannel sink() {
+			return channel;
+		}
+
+		@Override
+		public SocketChannel channel() {
+			return channel;
+		}
+
+		@Override
+		public InetAddress peer() {
+			return InetAddress.getLoopbackAddress();
+		}
+
+		@Override
+		public void timeout(int millis) {
+			timeout = millis;
+		}
+
+		@Override
+		public void shutdownOutput() throws IOException {
+			channel.shutdownOutput();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		@Override
+		public String toString() {
+			Object remote;
+
+			try {
+				remote = channel.getRemoteAddress();
+			} catch (IOException e) {
+				remote = null;
+			}
+
+			return String.format("%s#%s @ %s",
+				channel.getClass().getCanonicalName(),
+				System.identityHashCode(channel),
+				remote);
+		}
+
+	}
+
+}
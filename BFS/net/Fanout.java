@@ -0,0 +1,196 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Writes to many long-lived streams from one selector thread, so a stalled reader never holds up a pusher;
+ * a stream that falls more than its allowance behind is dropped.
+ */
+public final class Fanout implements Closeable {
+
+	private final Selector selector;
+	private final Queue<Line> due = new ConcurrentLinkedQueue<>();
+	private volatile boolean open = true;
+
+
+	private Fanout(ThreadFactory factory) throws IOException {
+		selector = Selector.open();
+		factory.newThread(this::pump).start();
+	}
+
+
+	public static Fanout open(ThreadFactory factory) throws IOException {
+		return new Fanout(factory);
+	}
+
+
+	/**
+	 * Takes over the channel, which is switched to non-blocking; {@code drop} runs once when it fails or falls behind.
+	 */
+	public Line attach(SocketChannel channel, int allowance, Runnable drop) throws IOException {
+		channel.configureBlocking(false);
+
+		return new Line(channel, allowance, drop);
+	}
+
+	private void pump() {
+		try {
+			while (open) {
+				selector.select();
+
+				for (Line line; (line = due.poll()) != null; ) {
+					line.arm();
+				}
+
+				for (SelectionKey key : selector.selectedKeys()) {
+					((Line)key.attachment()).flush();
+				}
+
+				selector.selectedKeys().clear();
+			}
+		} catch (IOException | ClosedSelectorException e) {
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		selector.close();
+	}
+
+
+	public final class Line {
+
+		private final SocketChannel channel;
+		private final int allowance;
+		private final Runnable drop;
+		private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+		private long queued;
+		private SelectionKey key;
+		private boolean dead;
+
+
+		private Line(SocketChannel channel, int allowance, Runnable drop) {
+			this.channel = channel;
+			this.allowance = allowance;
+			this.drop = drop;
+		}
+
+
+		/**
+		 * Writes what the socket takes now and leaves the rest to the selector; false once the line is dropped.
+		 */
+		public synchronized boolean offer(ByteBuffer data) {
+			if (dead) {
+				return false;
+			}
+
+			queue.add(data);
+			queued += data.remaining();
+
+			if (!write()) {
+				return false;
+			}
+
+			if (queued > allowance) {
+				kill();
+				return false;
+			}
+
+			if (queued > 0) {
+				due.add(this);
+				selector.wakeup();
+			}
+
+			return true;
+		}
+
+		private boolean write() {
+			try {
+				for (ByteBuffer head; (head = queue.peek()) != null; queue.poll()) {
+					queued -= channel.write(head);
+
+					if (head.hasRemaining()) {
+						break;
+					}
+				}
+
+				return true;
+			} catch (IOException e) {
+				kill();
+				return false;
+			}
+		}
+
+		private synchronized void arm() {
+			if (dead || queued == 0) {
+				return;
+			}
+
+			try {
+				if (key == null) {
+					key = channel.register(selector, SelectionKey.OP_WRITE, this);
+				} else if (key.isValid()) {
+					key.interestOps(SelectionKey.OP_WRITE);
+				}
+			} catch (ClosedChannelException e) {
+				kill();
+			}
+		}
+
+		private synchronized void flush() {
+			if (!dead && write() && queued == 0 && key.isValid()) {
+				key.interestOps(0);
+			}
+		}
+
+		private void kill() {
+			dead = true;
+			queue.clear();
+			queued = 0;
+
+			if (key != null) {
+				key.cancel();
+			}
+
+			drop.run();
+		}
+
+	}
+
+}
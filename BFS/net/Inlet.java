@@ -0,0 +1,218 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * A byte-level reader of request heads, handing any read-ahead over to the body.
+ */
+public final class Inlet {
+
+	private static final int LINE_LIMIT = 1 << 16;
+
+	private final InputStream in;
+	private final byte[] buffer;
+	private byte[] scratch;
+	private int head;
+	private int tail;
+	private volatile long taken;
+
+
+	public Inlet(InputStream in, int size) {
+		this.in = in;
+		this.buffer = new byte[size];
+		this.scratch = new byte[256];
+	}
+
+
+	private boolean fill() throws IOException {
+		if (head < tail) {
+			return true;
+		}
+
+		head = tail = 0;
+
+		final int count = in.read(buffer);
+
+		if (count > 0) {
+			tail = count;
+			taken += count;
+		}
+
+		return count > 0;
+	}
+
+
+	public String line() throws IOException {
+		int size = 0;
+
+		while (fill()) {
+			int stop = head;
+
+			while (stop < tail && buffer[stop] != '\n') {
+				stop++;
+			}
+
+			if (size + stop - head > LINE_LIMIT) {
+				throw new IOException("Line exceeds " + LINE_LIMIT + " bytes");
+			} else if (size + stop - head > scratch.length) {
+				scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, size + stop - head));
+			}
+
+			System.arraycopy(buffer, head, scratch, size, stop - head);
+			size += stop - head;
+
+			if (stop < tail) {
+				head = stop + 1;
+
+				return new String(scratch, 0, size > 0 && scratch[size - 1] == '\r' ? size - 1 : size, StandardCharsets.UTF_8);
+			}
+
+			head = tail;
+		}
+
+		return null;
+	}
+
+	public boolean await() throws IOException {
+		return fill();
+	}
+
+	public long taken() {
+		return taken;
+	}
+
+	public boolean ready() {
+		return head < tail;
+	}
+
+	/**
+	 * A stream over the next count bytes of the body, read-ahead first.
+	 */
+	public InputStream body(long count) {
+		return new InputStream() {
+
+			private long left = count;
+
+			@Override
+			public int read() throws IOException {
+				final byte[] one = new byte[1];
+
+				return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] data, int offset, int length) throws IOException {
+				if (left <= 0) {
+					return -1;
+				}
+
+				final int step = Inlet.this.read(data, offset, (int)Math.min(length, left));
+
+				if (step < 0) {
+					throw new EOFException(String.format("%s bytes short", left));
+				}
+
+				left -= step;
+
+				return step;
+			}
+
+		};
+	}
+
+	public int read(byte[] data, int offset, int length) throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+
+		final int count = Math.min(length, tail - head);
+
+		System.arraycopy(buffer, head, data, offset, count);
+		head += count;
+
+		return count;
+	}
+
+	public long transfer(FileChannel out, long position, long count, ReadableByteChannel src) throws IOException {
+		long done = 0;
+
+		if (head < tail && count > 0) {
+			final ByteBuffer rest = ByteBuffer.wrap(buffer, head, (int)Math.min(count, tail - head));
+
+			head += rest.remaining();
+
+			while (rest.hasRemaining()) {
+				done += out.write(rest, position + done);
+			}
+		}
+
+		final ReadableByteChannel tap = new ReadableByteChannel() {
+
+			@Override
+			public int read(ByteBuffer dst) throws IOException {
+				final int count = src.read(dst);
+
+				if (count > 0) {
+					taken += count;
+				}
+
+				return count;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return src.isOpen();
+			}
+
+			@Override
+			public void close() throws IOException {
+				src.close();
+			}
+
+		};
+
+		while (done < count) {
+			final long step = out.transferFrom(tap, position + done, count - done);
+
+			if (step <= 0) {
+				throw new EOFException(String.format("%s of %s bytes", done, count));
+			}
+
+			done += step;
+		}
+
+		return done;
+	}
+
+}
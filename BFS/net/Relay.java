@@ -0,0 +1,296 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.net;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Spreads redirects across weighted upstreams, skipping those that fail their health check.
+ */
+public final class Relay {
+
+	public static final int HASH = 0;
+	public static final int LOAD = 1;
+
+	private static final String[] MODES = { "hash", "load" };
+	private static final int POINTS = 64;
+	private static final int PATIENCE = 1000;
+
+	private final List<Node> nodes;
+	private final long[] ring;
+	private final Node[] owners;
+	private final int mode;
+	private final LongAdder blind;
+
+
+	private Relay(List<Node> nodes, int mode) {
+		final int total = nodes.stream().mapToInt(Node::weight).sum() * POINTS;
+		final long[] spots = new long[total];
+		final Node[] marks = new Node[total];
+		int len = 0;
+
+		for (Node node : nodes) {
+			for (int i = 0; i < node.weight * POINTS; i++) {
+				spots[len] = (hash(node.label + "#" + i) & -1L << 16) | len;
+				marks[len++] = node;
+			}
+		}
+
+		Arrays.sort(spots);
+
+		this.nodes = Collections.unmodifiableList(nodes);
+		this.ring = new long[total];
+		this.owners = new Node[total];
+		this.mode = mode;
+		this.blind = new LongAdder();
+
+		for (int i = 0; i < total; i++) {
+			ring[i] = spots[i];
+			owners[i] = marks[(int)(spots[i] & 0xffff)];
+		}
+	}
+
+
+	public static Relay parse(String list, String mode) {
+		final List<Node> nodes = new ArrayList<>();
+
+		for (String item : list.split(",")) {
+			final String[] parts = item.trim().split("\\s+");
+
+			if (!parts[0].isEmpty()) {
+				nodes.add(new Node(URI.create(parts[0]), parts.length > 1 ? Integer.parseInt(parts[1]) : 1));
+			}
+		}
+
+		if (nodes.isEmpty() || nodes.stream().mapToInt(Node::weight).sum() * POINTS > 0xffff) {
+			throw new IllegalArgumentException(list);
+		}
+
+		return new Relay(nodes, mode(mode));
+	}
+
+	public static int mode(String name) {
+		for (int i = 0; i < MODES.length; i++) {
+			if (MODES[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+
+		return HASH;
+	}
+
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+
+		for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			h = (h ^ (b & 0xff)) * 0x100000001b3L;
+		}
+
+		h = (h ^ h >>> 33) * 0xff51afd7ed558ccdL;
+		h = (h ^ h >>> 33) * 0xc4ceb9fe1a85ec53L;
+
+		return h ^ h >>> 33;
+	}
+
+
+	public URI route(String raw, String key) {
+		Node node = pick(key, true);
+
+		if (node == null) {
+			node = pick(key, false);
+			blind.increment();
+		}
+
+		node.routed.increment();
+		node.recent.incrementAndGet();
+
+		return node.base.resolve(raw);
+	}
+
+	private Node pick(String key, boolean healthy) {
+		if (mode == LOAD) {
+			Node best = null;
+
+			for (Node node : nodes) {
+				if ((node.alive || !healthy) && (best == null || node.recent.get() * best.weight < best.recent.get() * node.weight)) {
+					best = node;
+				}
+			}
+
+			return best;
+		}
+
+		final int from = Math.abs(Arrays.binarySearch(ring, hash(key) | 0xffff) + 1);
+
+		for (int i = 0; i < ring.length; i++) {
+			final Node node = owners[(from + i) % ring.length];
+
+			if (node.alive || !healthy) {
+				return node;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks every upstream at once on the given executor, skipping any whose last check is still out.
+	 */
+	public void probe(Executor scouts) {
+		for (Node node : nodes) {
+			node.recent.updateAndGet(n -> n >> 1);
+
+			if (node.probing.compareAndSet(false, true)) {
+				try {
+					scouts.execute(() -> {
+						try {
+							node.alive = node.check();
+						} finally {
+							node.probing.set(false);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					node.probing.set(false);
+				}
+			}
+		}
+	}
+
+	public List<Node> nodes() {
+		return nodes;
+	}
+
+	public long blind() {
+		return blind.sum();
+	}
+
+	public String mode() {
+		return MODES[mode];
+	}
+
+
+	@Override
+	public String toString() {
+		final StringBuilder text = new StringBuilder();
+
+		for (Node node : nodes) {
+			text.append(text.length() == 0 ? "" : ", ").append(node.base).append(' ').append(node.weight);
+		}
+
+		return text.toString();
+	}
+
+
+	public static final class Node {
+
+		private final URI base;
+		private final int weight;
+		private final String label;
+		private final LongAdder routed;
+		private final AtomicLong recent;
+		private final AtomicBoolean probing;
+
+		private volatile boolean alive;
+
+
+		private Node(URI base, int weight) {
+			if (base.getHost() == null || weight <= 0) {
+				throw new IllegalArgumentException(base + " " + weight);
+			}
+
+			this.base = base;
+			this.weight = weight;
+			this.label = base.getHost() + ":" + port(base);
+			this.routed = new LongAdder();
+			this.recent = new AtomicLong();
+			this.probing = new AtomicBoolean();
+			this.alive = true;
+		}
+
+
+		private static int port(URI base) {
+			return base.getPort() >= 0 ? base.getPort() : "https".equalsIgnoreCase(base.getScheme()) ? 443 : 80;
+		}
+
+		private boolean check() {
+			try (Socket probe = new Socket()) {
+				probe.connect(new InetSocketAddress(base.getHost(), port(base)), PATIENCE);
+				probe.setSoTimeout(PATIENCE);
+
+				if ("https".equalsIgnoreCase(base.getScheme())) {
+					return true;
+				}
+
+				final OutputStream out = probe.getOutputStream();
+				final String path = base.getRawPath() == null || base.getRawPath().isEmpty() ? "/" : base.getRawPath();
+
+				out.write(String.format("GET %s HTTP/1.1\r\nHost: %s\r\nConnection: close\r\n\r\n", path, label).getBytes(StandardCharsets.UTF_8));
+				out.flush();
+
+				final String line = new BufferedReader(new InputStreamReader(probe.getInputStream(), StandardCharsets.ISO_8859_1)).readLine();
+				final String[] parts = line == null ? new String[0] : line.split(" ");
+
+				return parts.length > 1 && parts[0].startsWith("HTTP/") && parts[1].compareTo("500") < 0;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+
+		public String label() {
+			return label;
+		}
+
+		public int weight() {
+			return weight;
+		}
+
+		public boolean alive() {
+			return alive;
+		}
+
+		public long routed() {
+			return routed.sum();
+		}
+
+	}
+
+}
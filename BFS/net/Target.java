@@ -0,0 +1,163 @@
+/*
+ * MIT License
+ *
+ * Copyright (C) 2020-2024 Harry Shungo Pereboom (github.com/hspereboom)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package BFS.net;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Decodes request targets in one pass and remembers where they resolve under the root.
+ */
+public final class Target {
+
+	private final Path root;
+	private final int limit;
+	private final Map<String, Entry<String, Path>> cache;
+
+
+	public Target(Path root, int limit) {
+		this.root = root.toAbsolutePath().normalize();
+		this.limit = Math.max(1, limit);
+		this.cache = new ConcurrentHashMap<>();
+	}
+
+
+	private static int hex(char c) {
+		return c >= '0' && c <= '9' ? c - '0'
+			: c >= 'a' && c <= 'f' ? c - 'a' + 10
+			: c >= 'A' && c <= 'F' ? c - 'A' + 10
+			: -1;
+	}
+
+	public static String decode(CharSequence raw) {
+		if (raw == null) {
+			return null;
+		}
+
+		final int size = raw.length();
+		final byte[] out = new byte[size * 3];
+		int mark = 0;
+		int len = 0;
+
+		for (int i = 0; i <= size; i++) {
+			final char c = i < size ? raw.charAt(i) : '?';
+
+			if (c == '?' || c == '#' || c == '/') {
+				final int seg = len - mark;
+
+				if (seg == 0 && c == '/') {
+					return null;
+				} else if (seg == 2 && out[mark] == '.' && out[mark + 1] == '.') {
+					return null;
+				} else if (seg == 1 && out[mark] == '.') {
+					len = mark;
+				} else if (c == '/') {
+					out[len++] = '/';
+					mark = len;
+				}
+
+				if (c != '/') {
+					break;
+				}
+			} else if (c == '%') {
+				final int hi = i + 2 < size ? hex(raw.charAt(i + 1)) : -1;
+				final int lo = i + 2 < size ? hex(raw.charAt(i + 2)) : -1;
+				final int b = hi < 0 || lo < 0 ? -1 : hi << 4 | lo;
+
+				if (b < 0x20 || b == 0x7f || b == '/' || b == '\\' || b == ':') {
+					return null;
+				}
+
+				out[len++] = (byte)b;
+				i += 2;
+			} else if (c < 0x20 || c == 0x7f || c == '\\' || c == ':') {
+				return null;
+			} else if (c < 0x80) {
+				out[len++] = (byte)c;
+			} else if (c < 0x800) {
+				out[len++] = (byte)(0xc0 | c >> 6);
+				out[len++] = (byte)(0x80 | c & 0x3f);
+			} else if (!Character.isSurrogate(c)) {
+				out[len++] = (byte)(0xe0 | c >> 12);
+				out[len++] = (byte)(0x80 | c >> 6 & 0x3f);
+				out[len++] = (byte)(0x80 | c & 0x3f);
+			} else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(raw.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, raw.charAt(++i));
+
+				out[len++] = (byte)(0xf0 | cp >> 18);
+				out[len++] = (byte)(0x80 | cp >> 12 & 0x3f);
+				out[len++] = (byte)(0x80 | cp >> 6 & 0x3f);
+				out[len++] = (byte)(0x80 | cp & 0x3f);
+			} else {
+				return null;
+			}
+		}
+
+		return new String(out, 0, len, StandardCharsets.UTF_8);
+	}
+
+	public Entry<String, Path> resolve(String raw) {
+		Entry<String, Path> hit = raw == null ? null : cache.get(raw);
+
+		if (hit == null) {
+			final String path = decode(raw);
+			final Path file;
+
+			try {
+				file = path == null ? null : root.resolve(path).normalize();
+			} catch (InvalidPathException e) {
+				return null;
+			}
+
+			if (file == null || !file.startsWith(root)) {
+				return null;
+			}
+
+			if (cache.size() >= limit) {
+				final Iterator<String> evict = cache.keySet().iterator();
+
+				if (evict.hasNext()) {
+					evict.next();
+					evict.remove();
+				}
+			}
+
+			cache.put(raw, hit = new SimpleImmutableEntry<>(path, file));
+		}
+
+		return hit;
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+}